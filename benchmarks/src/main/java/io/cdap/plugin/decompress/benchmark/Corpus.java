@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.benchmark;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The synthetic inputs the benchmarks expand. Each corpus is generated once and kept on disk, since generating the
+ * larger ones takes much longer than expanding them.
+ */
+public enum Corpus {
+  LARGE_GZIP("large.json.gz", "compressed", 1, 256 * 1024 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      try (OutputStream out = new GzipCompressorOutputStream(open(source))) {
+        writeText(out, text, getEntrySize());
+      }
+    }
+  },
+  SMALL_GZIPS("small", "compressed", 2000, 64 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      if (!source.mkdirs()) {
+        throw new IOException("Failed to create " + source);
+      }
+      for (int i = 0; i < getEntries(); i++) {
+        try (OutputStream out = new GzipCompressorOutputStream(open(new File(source, "part-" + i + ".json.gz")))) {
+          writeText(out, text, getEntrySize());
+        }
+      }
+    }
+  },
+  TAR("entries.tar", "archived", 10000, 8 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      writeTar(open(source), text);
+    }
+  },
+  ZIP("entries.zip", "archived", 10000, 8 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(open(source))) {
+        for (int i = 0; i < getEntries(); i++) {
+          out.putArchiveEntry(new ZipArchiveEntry("entries/entry-" + i + ".json"));
+          writeText(out, text, getEntrySize());
+          out.closeArchiveEntry();
+        }
+      }
+    }
+  },
+  TAR_BZIP2("large.tar.bz2", "archived then compressed", 64, 1024 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      writeTar(new BZip2CompressorOutputStream(open(source)), text);
+    }
+  },
+  XZ("large.json.xz", "compressed", 1, 128 * 1024 * 1024) {
+    @Override
+    void write(File source, SyntheticText text) throws IOException {
+      try (OutputStream out = new XZCompressorOutputStream(open(source))) {
+        writeText(out, text, getEntrySize());
+      }
+    }
+  };
+
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  private final String sourceName;
+  private final String archivedOrCompressed;
+  private final int entries;
+  private final int entrySize;
+
+  Corpus(String sourceName, String archivedOrCompressed, int entries, int entrySize) {
+    this.sourceName = sourceName;
+    this.archivedOrCompressed = archivedOrCompressed;
+    this.entries = entries;
+    this.entrySize = entrySize;
+  }
+
+  /**
+   * Returns the value of the Archived or Compressed property the corpus is expanded with.
+   */
+  public String getArchivedOrCompressed() {
+    return archivedOrCompressed;
+  }
+
+  /**
+   * Returns the number of files the corpus expands to.
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns the size of each file the corpus expands to.
+   */
+  public int getEntrySize() {
+    return entrySize;
+  }
+
+  /**
+   * Returns the corpus under the given directory, generating it first if it is not there yet.
+   *
+   * @return the file or directory to use as the Source Path
+   */
+  public File prepare(File directory) throws IOException {
+    File source = new File(new File(directory, name().toLowerCase()), sourceName);
+    if (source.exists()) {
+      return source;
+    }
+    // generate next to the corpus and move it in place, so that an interrupted run does not leave a partial corpus
+    File temp = new File(directory, name().toLowerCase() + ".tmp");
+    deleteRecursively(temp);
+    File tempSource = new File(temp, sourceName);
+    if (!temp.mkdirs()) {
+      throw new IOException("Failed to create " + temp);
+    }
+    write(tempSource, new SyntheticText());
+    Files.move(temp.toPath(), source.getParentFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return source;
+  }
+
+  abstract void write(File source, SyntheticText text) throws IOException;
+
+  void writeTar(OutputStream compressed, SyntheticText text) throws IOException {
+    try (TarArchiveOutputStream out = new TarArchiveOutputStream(compressed)) {
+      out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      for (int i = 0; i < entries; i++) {
+        TarArchiveEntry entry = new TarArchiveEntry("entries/entry-" + i + ".json");
+        entry.setSize(entrySize);
+        out.putArchiveEntry(entry);
+        writeText(out, text, entrySize);
+        out.closeArchiveEntry();
+      }
+    }
+  }
+
+  static OutputStream open(File file) throws IOException {
+    return new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE);
+  }
+
+  static void writeText(OutputStream out, SyntheticText text, long size) throws IOException {
+    for (long written = 0; written < size; written += CHUNK_SIZE) {
+      out.write(text.next((int) Math.min(CHUNK_SIZE, size - written)));
+    }
+  }
+
+  static void deleteRecursively(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Failed to delete " + file);
+    }
+  }
+}
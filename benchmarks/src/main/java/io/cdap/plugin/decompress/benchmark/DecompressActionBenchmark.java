@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.benchmark;
+
+import io.cdap.cdap.etl.mock.action.MockActionContext;
+import io.cdap.plugin.decompress.action.DecompressAction;
+import io.cdap.plugin.decompress.action.DecompressActionConfig;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the action expands each {@link Corpus} on the local file system.
+ *
+ * Besides the rate of runs, the benchmark reports the rate of expanded megabytes and files as secondary results.
+ * Run it with {@code -prof gc} to also report the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class DecompressActionBenchmark {
+  private static final String CORPUS_DIR = "decompress.benchmark.corpus.dir";
+  private static final double MEGABYTE = 1024 * 1024;
+
+  @Param
+  public Corpus corpus;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({"commons-compress"})
+  public String codecBackend;
+
+  private DecompressActionConfig config;
+  private File destination;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    File corpusDir = new File(System.getProperty(CORPUS_DIR,
+                                                 new File(System.getProperty("java.io.tmpdir"),
+                                                          "decompress-action-corpus").getPath()));
+    File source = corpus.prepare(corpusDir);
+    destination = Files.createTempDirectory("decompress-action-benchmark").toFile();
+    config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destination.getPath(), null, corpus.getArchivedOrCompressed(),
+                                 false))
+      .setParallelism(threads)
+      .setThreadsPerFile(threads)
+      .setCodecBackend(codecBackend)
+      .build();
+  }
+
+  @TearDown(Level.Iteration)
+  public void clearDestination() throws IOException {
+    File[] outputs = destination.listFiles();
+    if (outputs != null) {
+      for (File output : outputs) {
+        Corpus.deleteRecursively(output);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Corpus.deleteRecursively(destination);
+  }
+
+  @Benchmark
+  public void expand(Expanded expanded) throws Exception {
+    new DecompressAction(config).run(new MockActionContext());
+    expanded.megabytes += corpus.getEntries() * (double) corpus.getEntrySize() / MEGABYTE;
+    expanded.files += corpus.getEntries();
+  }
+
+  /**
+   * Counts the expanded data, which JMH reports as rates next to the primary result.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Expanded {
+    public double megabytes;
+    public long files;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      megabytes = 0;
+      files = 0;
+    }
+  }
+}
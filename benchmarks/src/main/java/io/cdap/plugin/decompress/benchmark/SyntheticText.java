@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates reproducible JSON lines that compress about as well as typical log and event files.
+ */
+final class SyntheticText {
+  private static final String[] LEVELS = {"DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR"};
+  private static final int WORDS = 2000;
+
+  private final Random random = new Random(42);
+  private final String[] words = new String[WORDS];
+  private final StringBuilder line = new StringBuilder();
+  private long id;
+
+  SyntheticText() {
+    for (int i = 0; i < WORDS; i++) {
+      char[] word = new char[3 + random.nextInt(8)];
+      for (int j = 0; j < word.length; j++) {
+        word[j] = (char) ('a' + random.nextInt(26));
+      }
+      words[i] = new String(word);
+    }
+  }
+
+  /**
+   * Returns the given number of bytes of text. The last line is cut at the size.
+   */
+  byte[] next(int size) {
+    byte[] text = new byte[size];
+    int filled = 0;
+    while (filled < size) {
+      byte[] next = nextLine();
+      int length = Math.min(next.length, size - filled);
+      System.arraycopy(next, 0, text, filled, length);
+      filled += length;
+    }
+    return text;
+  }
+
+  private byte[] nextLine() {
+    line.setLength(0);
+    line.append("{\"id\":").append(id++)
+      .append(",\"timestamp\":").append(1577836800000L + id * 37)
+      .append(",\"level\":\"").append(LEVELS[random.nextInt(LEVELS.length)])
+      .append("\",\"message\":\"");
+    int length = 4 + random.nextInt(16);
+    for (int i = 0; i < length; i++) {
+      // favour a small part of the vocabulary, as real messages do
+      int word = random.nextInt(4) == 0 ? random.nextInt(WORDS) : random.nextInt(WORDS / 20);
+      line.append(i == 0 ? "" : " ").append(words[word]);
+    }
+    line.append("\"}\n");
+    return line.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
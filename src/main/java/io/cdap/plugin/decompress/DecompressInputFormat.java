@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.plugin.decompress.common.EntryFilter;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import io.cdap.plugin.decompress.common.PositionedReadChannel;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+
+/**
+ * Input format that reads records straight out of archived or compressed files. Every file is read by a split of its
+ * own, except ZIP archives, whose central directory is read when the splits are computed so that their entries can
+ * be spread over several splits and read independently.
+ */
+public class DecompressInputFormat extends InputFormat<NullWritable, StructuredRecord> {
+  static final String PATH = "decompress.source.path";
+  static final String FILE_REGEX = "decompress.source.file.regex";
+  static final String RECURSIVE = "decompress.source.recursive";
+  static final String FORMAT = "decompress.source.format";
+  static final String MAX_SPLIT_SIZE = "decompress.source.max.split.size";
+  static final String CODEC_BACKEND = "decompress.source.codec.backend";
+  static final String ENTRY_INCLUDE_REGEX = "decompress.source.entry.include.regex";
+  static final String ENTRY_EXCLUDE_REGEX = "decompress.source.entry.exclude.regex";
+  static final String MAX_FILE_EXPANDED_BYTES = "decompress.source.max.file.expanded.bytes";
+  static final String MAX_COMPRESSION_RATIO = "decompress.source.max.compression.ratio";
+  static final String MAX_ENTRIES = "decompress.source.max.entries";
+  static final String MAX_ENTRY_SIZE = "decompress.source.max.entry.size";
+
+  private static final Logger LOG = LoggerFactory.getLogger(DecompressInputFormat.class);
+  private static final Set<String> ZIP_EXTENSIONS = ImmutableSet.of("zip", "jar");
+
+  /**
+   * Returns the configuration of the input format for the given source config.
+   */
+  static Map<String, String> configure(DecompressSourceConfig config) {
+    ImmutableMap.Builder<String, String> configuration = ImmutableMap.<String, String>builder()
+      .put(PATH, config.getPath())
+      .put(FILE_REGEX, config.getFileRegex())
+      .put(RECURSIVE, String.valueOf(config.getRecursive()))
+      .put(FORMAT, config.getFormat())
+      .put(MAX_SPLIT_SIZE, String.valueOf(config.getMaxSplitSize()))
+      .put(CODEC_BACKEND, config.getCodecBackend().getValue());
+    putIfSet(configuration, ENTRY_INCLUDE_REGEX, config.getEntryIncludeRegex());
+    putIfSet(configuration, ENTRY_EXCLUDE_REGEX, config.getEntryExcludeRegex());
+    putIfSet(configuration, MAX_FILE_EXPANDED_BYTES, config.getMaxFileExpandedBytes());
+    putIfSet(configuration, MAX_COMPRESSION_RATIO, config.getMaxCompressionRatio());
+    putIfSet(configuration, MAX_ENTRIES, config.getMaxEntries());
+    putIfSet(configuration, MAX_ENTRY_SIZE, config.getMaxEntrySize());
+    return configuration.build();
+  }
+
+  /**
+   * Returns the filter selecting the archive entries to read.
+   */
+  static EntryFilter getEntryFilter(Configuration conf) {
+    return new EntryFilter(conf.get(ENTRY_INCLUDE_REGEX), conf.get(ENTRY_EXCLUDE_REGEX));
+  }
+
+  /**
+   * Returns the limits every split is checked against. The limit on the bytes expanded by a whole run does not
+   * apply, since the splits are read by separate tasks.
+   */
+  static ExpansionLimits getLimits(Configuration conf) {
+    String maxCompressionRatio = conf.get(MAX_COMPRESSION_RATIO);
+    return new ExpansionLimits(getLong(conf, MAX_FILE_EXPANDED_BYTES), null,
+                               maxCompressionRatio == null ? null : Double.valueOf(maxCompressionRatio),
+                               getLong(conf, MAX_ENTRIES), getLong(conf, MAX_ENTRY_SIZE));
+  }
+
+  private static void putIfSet(ImmutableMap.Builder<String, String> configuration, String key,
+                               @Nullable Object value) {
+    if (value != null) {
+      configuration.put(key, value.toString());
+    }
+  }
+
+  @Nullable
+  private static Long getLong(Configuration conf, String key) {
+    String value = conf.get(key);
+    return value == null ? null : Long.valueOf(value);
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    Path path = new Path(conf.get(PATH));
+    FileSystem fileSystem = path.getFileSystem(conf);
+    Pattern pattern = Pattern.compile(conf.get(FILE_REGEX, ".*"));
+    long maxSplitSize = conf.getLong(MAX_SPLIT_SIZE, Long.MAX_VALUE);
+    EntryFilter entryFilter = getEntryFilter(conf);
+
+    List<InputSplit> splits = new ArrayList<>();
+    for (FileStatus file : listFiles(fileSystem, path, pattern, conf.getBoolean(RECURSIVE, false))) {
+      if (!isZipArchive(file.getPath()) || !addZipSplits(fileSystem, file, maxSplitSize, entryFilter, splits)) {
+        splits.add(new DecompressInputSplit(file.getPath().toString(), Collections.emptyList(), file.getLen()));
+      }
+    }
+    LOG.info("Reading {} in {} splits", path, splits.size());
+    return splits;
+  }
+
+  @Override
+  public RecordReader<NullWritable, StructuredRecord> createRecordReader(InputSplit split,
+                                                                        TaskAttemptContext context) {
+    return new EntryRecordReader();
+  }
+
+  /**
+   * Lists the files to read. A single file is read even if its name does not match the pattern, like the
+   * Decompress action does.
+   */
+  private static List<FileStatus> listFiles(FileSystem fileSystem, Path path, Pattern pattern,
+                                            boolean recursive) throws IOException {
+    if (fileSystem.isFile(path)) {
+      return Collections.singletonList(fileSystem.getFileStatus(path));
+    }
+    List<FileStatus> files = new ArrayList<>();
+    FileStatus[] roots = fileSystem.globStatus(path);
+    if (roots == null) {
+      return files;
+    }
+    for (FileStatus root : roots) {
+      if (root.isFile()) {
+        if (pattern.matcher(root.getPath().getName()).matches()) {
+          files.add(root);
+        }
+        continue;
+      }
+      RemoteIterator<LocatedFileStatus> children = fileSystem.listFiles(root.getPath(), recursive);
+      while (children.hasNext()) {
+        LocatedFileStatus child = children.next();
+        if (pattern.matcher(child.getPath().getName()).matches()) {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Returns whether the file is named like a ZIP archive. Only the name is checked, so that computing the splits of
+   * many files does not open them all; a ZIP archive named otherwise is still read, by a single split.
+   */
+  private static boolean isZipArchive(Path path) {
+    String name = path.getName();
+    int index = name.lastIndexOf('.');
+    return index > 0 && ZIP_EXTENSIONS.contains(name.substring(index + 1).toLowerCase());
+  }
+
+  /**
+   * Reads the central directory of a ZIP archive and groups its entries into splits of at most the given number of
+   * compressed bytes, in the order the entries are stored. Entries that are not selected are left out, and later
+   * entries with the same name replace earlier ones, like when the archive is expanded.
+   *
+   * @return false if the file is not a valid ZIP archive, in which case no splits were added
+   */
+  private static boolean addZipSplits(FileSystem fileSystem, FileStatus file, long maxSplitSize,
+                                      EntryFilter entryFilter, List<InputSplit> splits) throws IOException {
+    Map<String, ZipArchiveEntry> entries = new LinkedHashMap<>();
+    try (ZipFile zipFile = new ZipFile(new PositionedReadChannel(fileSystem.open(file.getPath()), file.getLen()),
+                                       file.getPath().toString(), StandardCharsets.UTF_8.name(), true)) {
+      for (ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+        if (!entry.isDirectory() && entryFilter.isSelected(entry.getName())) {
+          entries.put(entry.getName(), entry);
+        }
+      }
+    } catch (ZipException e) {
+      LOG.warn("Reading {} as a single split since its central directory could not be read: {}", file.getPath(),
+               e.getMessage());
+      return false;
+    }
+
+    List<String> names = new ArrayList<>();
+    long length = 0;
+    for (ZipArchiveEntry entry : entries.values()) {
+      long size = Math.max(entry.getCompressedSize(), 0);
+      if (!names.isEmpty() && length + size > maxSplitSize) {
+        splits.add(new DecompressInputSplit(file.getPath().toString(), names, length));
+        names = new ArrayList<>();
+        length = 0;
+      }
+      names.add(entry.getName());
+      length += size;
+    }
+    if (!names.isEmpty()) {
+      splits.add(new DecompressInputSplit(file.getPath().toString(), names, length));
+    }
+    return true;
+  }
+}
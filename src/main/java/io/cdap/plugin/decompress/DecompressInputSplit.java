@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Split of {@link DecompressInputFormat}: either a whole file, or a group of entries of a ZIP archive read through
+ * its central directory.
+ */
+public class DecompressInputSplit extends InputSplit implements Writable {
+  private String path;
+  private List<String> entries;
+  private long length;
+
+  /**
+   * Constructor for deserialization.
+   */
+  public DecompressInputSplit() {
+    this.entries = Collections.emptyList();
+  }
+
+  /**
+   * @param entries the names of the ZIP entries to read, or an empty list to read the whole file
+   * @param length the number of bytes of the file read by the split
+   */
+  DecompressInputSplit(String path, List<String> entries, long length) {
+    this.path = path;
+    this.entries = entries;
+    this.length = length;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the names of the ZIP entries read by the split, or an empty list if it reads the whole file.
+   */
+  public List<String> getEntries() {
+    return entries;
+  }
+
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public String[] getLocations() {
+    return new String[0];
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeUTF(path);
+    out.writeLong(length);
+    out.writeInt(entries.size());
+    for (String entry : entries) {
+      out.writeUTF(entry);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    path = in.readUTF();
+    length = in.readLong();
+    int size = in.readInt();
+    entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(in.readUTF());
+    }
+  }
+}
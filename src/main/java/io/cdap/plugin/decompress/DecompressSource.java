@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.batch.Input;
+import io.cdap.cdap.api.data.batch.InputFormatProvider;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.batch.BatchSource;
+import io.cdap.cdap.etl.api.batch.BatchSourceContext;
+import org.apache.hadoop.io.NullWritable;
+
+import java.util.Map;
+
+/**
+ * Batch source that reads archived or compressed files and emits records straight from their entries, so that a
+ * pipeline can read them in a single streaming pass instead of expanding them with the Decompress action first.
+ * Files are read by {@link DecompressInputFormat}, one split per file, or per group of entries for ZIP archives.
+ */
+@Plugin(type = BatchSource.PLUGIN_TYPE)
+@Name("Decompress")
+@Description("Reads the lines or entries of archived or compressed files without expanding them to storage first")
+public class DecompressSource extends BatchSource<NullWritable, StructuredRecord, StructuredRecord> {
+  static final Schema TEXT_SCHEMA = Schema.recordOf(
+    "decompressedLine",
+    Schema.Field.of("path", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("entry", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("offset", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("body", Schema.of(Schema.Type.STRING)));
+  static final Schema BLOB_SCHEMA = Schema.recordOf(
+    "decompressedEntry",
+    Schema.Field.of("path", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("entry", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("body", Schema.of(Schema.Type.BYTES)));
+
+  private final DecompressSourceConfig config;
+
+  public DecompressSource(DecompressSourceConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
+    FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+    config.validate(failureCollector);
+    failureCollector.getOrThrowException();
+    pipelineConfigurer.getStageConfigurer().setOutputSchema(config.getSchema());
+  }
+
+  @Override
+  public void prepareRun(BatchSourceContext context) throws Exception {
+    FailureCollector failureCollector = context.getFailureCollector();
+    config.validate(failureCollector);
+    failureCollector.getOrThrowException();
+
+    Map<String, String> configuration = DecompressInputFormat.configure(config);
+    context.setInput(Input.of(config.getReferenceName(), new InputFormatProvider() {
+      @Override
+      public String getInputFormatClassName() {
+        return DecompressInputFormat.class.getName();
+      }
+
+      @Override
+      public Map<String, String> getInputFormatConfiguration() {
+        return configuration;
+      }
+    }));
+  }
+
+  @Override
+  public void transform(KeyValue<NullWritable, StructuredRecord> input, Emitter<StructuredRecord> emitter) {
+    emitter.emit(input.getValue());
+  }
+}
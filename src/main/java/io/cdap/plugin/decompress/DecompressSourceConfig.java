@@ -0,0 +1,397 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.plugin.decompress.common.CodecBackend;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.annotation.Nullable;
+
+/**
+ * Config class for {@link DecompressSource}.
+ */
+public class DecompressSourceConfig extends PluginConfig {
+  public static final String REFERENCE_NAME = "referenceName";
+  public static final String PATH = "path";
+  public static final String FILE_REGEX = "fileRegex";
+  public static final String RECURSIVE = "recursive";
+  public static final String FORMAT = "format";
+  public static final String MAX_SPLIT_SIZE = "maxSplitSize";
+  public static final String CODEC_BACKEND = "codecBackend";
+  public static final String ENTRY_INCLUDE_REGEX = "entryIncludeRegex";
+  public static final String ENTRY_EXCLUDE_REGEX = "entryExcludeRegex";
+  public static final String MAX_FILE_EXPANDED_BYTES = "maxFileExpandedBytes";
+  public static final String MAX_COMPRESSION_RATIO = "maxCompressionRatio";
+  public static final String MAX_ENTRIES = "maxEntries";
+  public static final String MAX_ENTRY_SIZE = "maxEntrySize";
+  public static final String TEXT = "text";
+  public static final String BLOB = "blob";
+
+  private static final long DEFAULT_MAX_SPLIT_SIZE = 128 * 1024 * 1024;
+  // a blob record holds a whole entry in memory, so entries are limited even when no maximum is set
+  private static final long DEFAULT_MAX_BLOB_SIZE = 64 * 1024 * 1024;
+  // the largest array most JVMs can allocate
+  private static final long MAX_BLOB_SIZE = Integer.MAX_VALUE - 8;
+
+  @Name(REFERENCE_NAME)
+  @Description("Name used to identify this source for lineage.")
+  private final String referenceName;
+
+  @Name(PATH)
+  @Macro
+  @Description("The archived or compressed file to read, or a directory or glob of them.")
+  private final String path;
+
+  @Name(FILE_REGEX)
+  @Macro
+  @Nullable
+  @Description("A regular expression for filtering the files of a directory or glob, such as .*\\.zip")
+  private final String fileRegex;
+
+  @Name(RECURSIVE)
+  @Macro
+  @Nullable
+  @Description("Set to true to also read the files in the subdirectories of the source directory. Defaults to false.")
+  private final Boolean recursive;
+
+  @Name(FORMAT)
+  @Macro
+  @Nullable
+  @Description("'text' to emit one record per line of every entry, or 'blob' to emit one record per entry with " +
+    "its whole contents. Defaults to 'text'.")
+  private final String format;
+
+  @Name(MAX_SPLIT_SIZE)
+  @Macro
+  @Nullable
+  @Description("The maximum number of compressed bytes of ZIP entries grouped into a single split. Every other " +
+    "file is read by a split of its own. Defaults to 134217728 (128 MB).")
+  private final Long maxSplitSize;
+
+  @Name(CODEC_BACKEND)
+  @Macro
+  @Nullable
+  @Description("The implementation used to decompress files: 'commons-compress', 'hadoop-native' or 'auto'. " +
+    "'auto' uses the Hadoop codec for the file extension when its native library is loaded, and Commons Compress " +
+    "otherwise. Defaults to 'commons-compress'.")
+  private final String codecBackend;
+
+  @Name(ENTRY_INCLUDE_REGEX)
+  @Macro
+  @Nullable
+  @Description("A regular expression that the names of archive entries must match, such as .*\\.csv, to be read. " +
+    "Other entries are skipped without reading their data. Leave empty to read every entry.")
+  private final String entryIncludeRegex;
+
+  @Name(ENTRY_EXCLUDE_REGEX)
+  @Macro
+  @Nullable
+  @Description("A regular expression for the names of archive entries that are skipped without reading their " +
+    "data, such as .*\\.jpg. Applies after the entry include pattern. Leave empty to skip no entry.")
+  private final String entryExcludeRegex;
+
+  @Name(MAX_FILE_EXPANDED_BYTES)
+  @Macro
+  @Nullable
+  @Description("The maximum number of bytes a split may expand to, which is a whole file or a group of ZIP " +
+    "entries. The split fails as soon as it expands to more. Defaults to no limit.")
+  private final Long maxFileExpandedBytes;
+
+  @Name(MAX_COMPRESSION_RATIO)
+  @Macro
+  @Nullable
+  @Description("The maximum ratio of the bytes a split expands to over the bytes it reads, checked once the " +
+    "split has expanded to more than 1 MB. Defaults to no limit.")
+  private final Double maxCompressionRatio;
+
+  @Name(MAX_ENTRIES)
+  @Macro
+  @Nullable
+  @Description("The maximum number of entries read by a single split. Defaults to no limit.")
+  private final Long maxEntries;
+
+  @Name(MAX_ENTRY_SIZE)
+  @Macro
+  @Nullable
+  @Description("The maximum number of bytes a single archive entry, or the contents of a compressed file, may " +
+    "expand to. Defaults to no limit in the text format, and to 67108864 (64 MB) in the blob format, which holds " +
+    "every entry in memory.")
+  private final Long maxEntrySize;
+
+  public DecompressSourceConfig(String referenceName, String path, @Nullable String fileRegex,
+                                @Nullable Boolean recursive, @Nullable String format, @Nullable Long maxSplitSize) {
+    this.referenceName = referenceName;
+    this.path = path;
+    this.fileRegex = fileRegex;
+    this.recursive = recursive;
+    this.format = format;
+    this.maxSplitSize = maxSplitSize;
+    this.codecBackend = null;
+    this.entryIncludeRegex = null;
+    this.entryExcludeRegex = null;
+    this.maxFileExpandedBytes = null;
+    this.maxCompressionRatio = null;
+    this.maxEntries = null;
+    this.maxEntrySize = null;
+  }
+
+  private DecompressSourceConfig(Builder builder) {
+    referenceName = builder.referenceName;
+    path = builder.path;
+    fileRegex = builder.fileRegex;
+    recursive = builder.recursive;
+    format = builder.format;
+    maxSplitSize = builder.maxSplitSize;
+    codecBackend = builder.codecBackend;
+    entryIncludeRegex = builder.entryIncludeRegex;
+    entryExcludeRegex = builder.entryExcludeRegex;
+    maxFileExpandedBytes = builder.maxFileExpandedBytes;
+    maxCompressionRatio = builder.maxCompressionRatio;
+    maxEntries = builder.maxEntries;
+    maxEntrySize = builder.maxEntrySize;
+  }
+
+  public static Builder newBuilder(DecompressSourceConfig copy) {
+    Builder builder = new Builder();
+    builder.referenceName = copy.referenceName;
+    builder.path = copy.path;
+    builder.fileRegex = copy.fileRegex;
+    builder.recursive = copy.recursive;
+    builder.format = copy.format;
+    builder.maxSplitSize = copy.maxSplitSize;
+    builder.codecBackend = copy.codecBackend;
+    builder.entryIncludeRegex = copy.entryIncludeRegex;
+    builder.entryExcludeRegex = copy.entryExcludeRegex;
+    builder.maxFileExpandedBytes = copy.maxFileExpandedBytes;
+    builder.maxCompressionRatio = copy.maxCompressionRatio;
+    builder.maxEntries = copy.maxEntries;
+    builder.maxEntrySize = copy.maxEntrySize;
+    return builder;
+  }
+
+  public String getReferenceName() {
+    return referenceName;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getFileRegex() {
+    return Strings.isNullOrEmpty(fileRegex) ? ".*" : fileRegex;
+  }
+
+  public boolean getRecursive() {
+    return recursive != null && recursive;
+  }
+
+  public String getFormat() {
+    return Strings.isNullOrEmpty(format) ? TEXT : format.toLowerCase();
+  }
+
+  public long getMaxSplitSize() {
+    return maxSplitSize == null ? DEFAULT_MAX_SPLIT_SIZE : maxSplitSize;
+  }
+
+  public CodecBackend getCodecBackend() {
+    return Strings.isNullOrEmpty(codecBackend) ? CodecBackend.COMMONS_COMPRESS : CodecBackend.fromValue(codecBackend);
+  }
+
+  @Nullable
+  public String getEntryIncludeRegex() {
+    return Strings.isNullOrEmpty(entryIncludeRegex) ? null : entryIncludeRegex;
+  }
+
+  @Nullable
+  public String getEntryExcludeRegex() {
+    return Strings.isNullOrEmpty(entryExcludeRegex) ? null : entryExcludeRegex;
+  }
+
+  @Nullable
+  public Long getMaxFileExpandedBytes() {
+    return maxFileExpandedBytes;
+  }
+
+  @Nullable
+  public Double getMaxCompressionRatio() {
+    return maxCompressionRatio;
+  }
+
+  @Nullable
+  public Long getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Returns the maximum size of an entry, which defaults to a limit in the blob format since every entry is read
+   * into memory then.
+   */
+  @Nullable
+  public Long getMaxEntrySize() {
+    if (maxEntrySize == null && BLOB.equals(getFormat())) {
+      return DEFAULT_MAX_BLOB_SIZE;
+    }
+    return maxEntrySize;
+  }
+
+  /**
+   * Returns the schema of the records emitted in the configured format, or null if the format is a macro.
+   */
+  @Nullable
+  public Schema getSchema() {
+    if (containsMacro(FORMAT)) {
+      return null;
+    }
+    return BLOB.equals(getFormat()) ? DecompressSource.BLOB_SCHEMA : DecompressSource.TEXT_SCHEMA;
+  }
+
+  /**
+   * Validates the config and collects the failures in the given collector.
+   */
+  public void validate(FailureCollector collector) {
+    if (Strings.isNullOrEmpty(referenceName)) {
+      collector.addFailure("Reference name is required.", null)
+        .withConfigProperty(REFERENCE_NAME);
+    }
+    if (!containsMacro(PATH) && Strings.isNullOrEmpty(path)) {
+      collector.addFailure("Path is required.", null)
+        .withConfigProperty(PATH);
+    }
+    if (!containsMacro(FILE_REGEX)) {
+      try {
+        Pattern.compile(getFileRegex());
+      } catch (Exception e) {
+        collector.addFailure("The regular expression pattern provided is not a valid regular expression.", null)
+          .withConfigProperty(FILE_REGEX)
+          .withStacktrace(e.getStackTrace());
+      }
+    }
+    if (!containsMacro(FORMAT) && !TEXT.equals(getFormat()) && !BLOB.equals(getFormat())) {
+      collector.addFailure("Format must be either 'text' or 'blob'.", null)
+        .withConfigProperty(FORMAT);
+    }
+    if (!containsMacro(MAX_SPLIT_SIZE) && maxSplitSize != null && maxSplitSize < 1) {
+      collector.addFailure("Max split size must be at least 1.", null)
+        .withConfigProperty(MAX_SPLIT_SIZE);
+    }
+    if (!containsMacro(CODEC_BACKEND) && !Strings.isNullOrEmpty(codecBackend) &&
+      CodecBackend.fromValue(codecBackend) == null) {
+      collector.addFailure("Codec backend must be one of 'commons-compress', 'hadoop-native' or 'auto'.", null)
+        .withConfigProperty(CODEC_BACKEND);
+    }
+    if (!containsMacro(ENTRY_INCLUDE_REGEX) && !isValidRegex(getEntryIncludeRegex())) {
+      collector.addFailure("The entry include pattern is not a valid regular expression.", null)
+        .withConfigProperty(ENTRY_INCLUDE_REGEX);
+    }
+    if (!containsMacro(ENTRY_EXCLUDE_REGEX) && !isValidRegex(getEntryExcludeRegex())) {
+      collector.addFailure("The entry exclude pattern is not a valid regular expression.", null)
+        .withConfigProperty(ENTRY_EXCLUDE_REGEX);
+    }
+    if (!containsMacro(MAX_FILE_EXPANDED_BYTES) && maxFileExpandedBytes != null && maxFileExpandedBytes < 1) {
+      collector.addFailure("Max file expanded bytes must be at least 1.", null)
+        .withConfigProperty(MAX_FILE_EXPANDED_BYTES);
+    }
+    if (!containsMacro(MAX_COMPRESSION_RATIO) && maxCompressionRatio != null && !(maxCompressionRatio >= 1)) {
+      collector.addFailure("Max compression ratio must be at least 1.", null)
+        .withConfigProperty(MAX_COMPRESSION_RATIO);
+    }
+    if (!containsMacro(MAX_ENTRIES) && maxEntries != null && maxEntries < 1) {
+      collector.addFailure("Max entries must be at least 1.", null)
+        .withConfigProperty(MAX_ENTRIES);
+    }
+    if (!containsMacro(MAX_ENTRY_SIZE) && maxEntrySize != null && maxEntrySize < 1) {
+      collector.addFailure("Max entry size must be at least 1.", null)
+        .withConfigProperty(MAX_ENTRY_SIZE);
+    } else if (!containsMacro(MAX_ENTRY_SIZE) && !containsMacro(FORMAT) && maxEntrySize != null &&
+      BLOB.equals(getFormat()) && maxEntrySize > MAX_BLOB_SIZE) {
+      collector.addFailure(String.format("Max entry size must be at most %d in the blob format, which holds every " +
+                                           "entry in a single array.", MAX_BLOB_SIZE), null)
+        .withConfigProperty(MAX_ENTRY_SIZE);
+    }
+  }
+
+  private static boolean isValidRegex(@Nullable String regex) {
+    try {
+      return regex == null || Pattern.compile(regex) != null;
+    } catch (PatternSyntaxException e) {
+      return false;
+    }
+  }
+
+  public static final class Builder {
+    private String referenceName;
+    private String path;
+    private String fileRegex;
+    private Boolean recursive;
+    private String format;
+    private Long maxSplitSize;
+    private String codecBackend;
+    private String entryIncludeRegex;
+    private String entryExcludeRegex;
+    private Long maxFileExpandedBytes;
+    private Double maxCompressionRatio;
+    private Long maxEntries;
+    private Long maxEntrySize;
+
+    public Builder setCodecBackend(String codecBackend) {
+      this.codecBackend = codecBackend;
+      return this;
+    }
+
+    public Builder setEntryIncludeRegex(String entryIncludeRegex) {
+      this.entryIncludeRegex = entryIncludeRegex;
+      return this;
+    }
+
+    public Builder setEntryExcludeRegex(String entryExcludeRegex) {
+      this.entryExcludeRegex = entryExcludeRegex;
+      return this;
+    }
+
+    public Builder setMaxFileExpandedBytes(Long maxFileExpandedBytes) {
+      this.maxFileExpandedBytes = maxFileExpandedBytes;
+      return this;
+    }
+
+    public Builder setMaxCompressionRatio(Double maxCompressionRatio) {
+      this.maxCompressionRatio = maxCompressionRatio;
+      return this;
+    }
+
+    public Builder setMaxEntries(Long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    public Builder setMaxEntrySize(Long maxEntrySize) {
+      this.maxEntrySize = maxEntrySize;
+      return this;
+    }
+
+    public DecompressSourceConfig build() {
+      return new DecompressSourceConfig(this);
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.plugin.decompress.common.CodecBackend;
+import io.cdap.plugin.decompress.common.DecompressingStreamFactory;
+import io.cdap.plugin.decompress.common.EntryFilter;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import io.cdap.plugin.decompress.common.PositionedReadChannel;
+import io.cdap.plugin.decompress.common.StreamFormats;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the records of a {@link DecompressInputSplit}. A whole file is decompressed if it is compressed and read
+ * entry by entry if it is an archive, both detected from its contents; any other file is read as a single entry.
+ * The entries of a ZIP split are read from the archive through its central directory. Each entry is emitted line by
+ * line, or as a single record in the blob format.
+ *
+ * Files are decompressed by the configured codec backend, archive entries are selected by the entry filter, and the
+ * data expanded by the split is checked against the {@link ExpansionLimits} of the source as it is read, like when
+ * the Decompress action expands a file.
+ */
+final class EntryRecordReader extends RecordReader<NullWritable, StructuredRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(EntryRecordReader.class);
+
+  private final Text line = new Text();
+  private DecompressInputSplit split;
+  private Path path;
+  private boolean blob;
+  private EntryFilter entryFilter;
+  private ExpansionLimits limits;
+  private long zipBytesRead;
+  private long bytesExpanded;
+  private long entries;
+  private CountingInputStream fileInput;
+  private InputStream fileStream;
+  private InputStream content;
+  private ArchiveInputStream archive;
+  private ZipFile zipFile;
+  private Iterator<String> zipEntries;
+  private int zipEntriesRead;
+  private String entryName;
+  private InputStream entryInput;
+  private LineReader lines;
+  private long offset;
+  private StructuredRecord record;
+
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException {
+    split = (DecompressInputSplit) inputSplit;
+    Configuration conf = context.getConfiguration();
+    blob = DecompressSourceConfig.BLOB.equals(conf.get(DecompressInputFormat.FORMAT));
+    entryFilter = DecompressInputFormat.getEntryFilter(conf);
+    limits = DecompressInputFormat.getLimits(conf);
+    path = new Path(split.getPath());
+    FileSystem fileSystem = path.getFileSystem(conf);
+    if (!split.getEntries().isEmpty()) {
+      long length = fileSystem.getFileStatus(path).getLen();
+      zipFile = new ZipFile(new PositionedReadChannel(fileSystem.open(path), length,
+                                                      (bytes, nanos) -> zipBytesRead += bytes),
+                            path.toString(), StandardCharsets.UTF_8.name(), true);
+      zipEntries = split.getEntries().iterator();
+      return;
+    }
+    fileInput = new CountingInputStream(fileSystem.open(path));
+    InputStream input = new BufferedInputStream(fileInput);
+    try {
+      if (StreamFormats.isCompressed(input)) {
+        CodecBackend backend = CodecBackend.fromValue(conf.get(DecompressInputFormat.CODEC_BACKEND,
+                                                               CodecBackend.COMMONS_COMPRESS.getValue()));
+        // concatenated streams, such as multi-member gzip files, are read to the end
+        input = new BufferedInputStream(new DecompressingStreamFactory(backend, conf, true).open(path, input));
+      }
+      if (StreamFormats.isArchive(input)) {
+        archive = new ArchiveStreamFactory().createArchiveInputStream(input);
+      }
+    } catch (CompressorException | ArchiveException e) {
+      input.close();
+      throw new IOException(String.format("Failed to open %s", path), e);
+    }
+    content = input;
+    fileStream = archive == null ? input : archive;
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (true) {
+      if (entryInput == null && !nextEntry()) {
+        record = null;
+        return false;
+      }
+      if (blob) {
+        // the entry is limited in size, so that it fits in memory
+        byte[] body = IOUtils.toByteArray(entryInput);
+        record = StructuredRecord.builder(DecompressSource.BLOB_SCHEMA)
+          .set("path", split.getPath())
+          .set("entry", entryName)
+          .set("body", body)
+          .build();
+        closeEntry();
+        return true;
+      }
+      if (lines == null) {
+        // the line reader is dropped rather than closed, since closing would close the archive it reads from
+        lines = new LineReader(entryInput);
+        offset = 0;
+      }
+      int consumed = lines.readLine(line);
+      if (consumed == 0) {
+        closeEntry();
+        continue;
+      }
+      record = StructuredRecord.builder(DecompressSource.TEXT_SCHEMA)
+        .set("path", split.getPath())
+        .set("entry", entryName)
+        .set("offset", offset)
+        .set("body", line.toString())
+        .build();
+      offset += consumed;
+      return true;
+    }
+  }
+
+  /**
+   * Moves to the next entry to read, skipping directories and entries using unsupported features.
+   *
+   * @return false if there are no more entries
+   */
+  private boolean nextEntry() throws IOException {
+    if (zipFile != null) {
+      while (zipEntries.hasNext()) {
+        String name = zipEntries.next();
+        zipEntriesRead++;
+        // later entries with the same name replace earlier ones
+        ZipArchiveEntry entry = Iterables.getLast(zipFile.getEntries(name), null);
+        if (entry != null && canRead(entry, zipFile.canReadEntryData(entry))) {
+          setEntry(entry, zipFile.getInputStream(entry));
+          return true;
+        }
+      }
+      return false;
+    }
+    if (archive != null) {
+      for (ArchiveEntry entry = archive.getNextEntry(); entry != null; entry = archive.getNextEntry()) {
+        // the archive stream skips over the data of entries that are not read when it moves to the next one
+        if (!entry.isDirectory() && entryFilter.isSelected(entry.getName()) &&
+          canRead(entry, archive.canReadEntryData(entry))) {
+          setEntry(entry, archive);
+          return true;
+        }
+      }
+      return false;
+    }
+    if (content == null) {
+      return false;
+    }
+    setEntry(null, content);
+    content = null;
+    return true;
+  }
+
+  private boolean canRead(ArchiveEntry entry, boolean canReadEntryData) {
+    if (!canReadEntryData) {
+      LOG.warn("Archive entry {} of {} is using a feature that is not supported yet. Skipping this entry.",
+               entry.getName(), split.getPath());
+    }
+    return canReadEntryData;
+  }
+
+  /**
+   * Starts reading an entry, or the contents of a file that is not an archive if the entry is null.
+   */
+  private void setEntry(@Nullable ArchiveEntry entry, InputStream input) throws IOException {
+    if (entry != null) {
+      limits.checkEntries(path, ++entries);
+      // rejects an entry that is known to be too large before reading it
+      if (entry.getSize() > 0) {
+        limits.checkEntrySize(path, entry.getSize());
+      }
+    }
+    entryName = entry == null ? null : entry.getName();
+    entryInput = limits.limitsBytes() ? new LimitedInputStream(input) : input;
+    lines = null;
+  }
+
+  /**
+   * Closes the stream of the current entry if it is a stream of its own; the entries of a streamed archive are read
+   * from the archive stream, which moves on to the next entry by itself.
+   */
+  private void closeEntry() throws IOException {
+    if (zipFile != null && entryInput != null) {
+      entryInput.close();
+    }
+    entryInput = null;
+    lines = null;
+  }
+
+  @Override
+  public NullWritable getCurrentKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public StructuredRecord getCurrentValue() {
+    return record;
+  }
+
+  @Override
+  public float getProgress() {
+    if (zipFile != null) {
+      return zipEntriesRead / (float) split.getEntries().size();
+    }
+    if (fileInput == null || split.getLength() == 0) {
+      return 0;
+    }
+    return Math.min(1f, fileInput.getCount() / (float) split.getLength());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      closeEntry();
+    } finally {
+      if (zipFile != null) {
+        zipFile.close();
+      }
+      if (fileStream != null) {
+        fileStream.close();
+      }
+    }
+  }
+
+  /**
+   * Input stream over the data of an entry that checks the bytes expanded by the entry and by the split against the
+   * limits.
+   */
+  private final class LimitedInputStream extends FilterInputStream {
+    private long length;
+
+    private LimitedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = in.read();
+      if (read != -1) {
+        record(1);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) {
+        record(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      if (skipped > 0) {
+        record(skipped);
+      }
+      return skipped;
+    }
+
+    private void record(long bytes) throws IOException {
+      length += bytes;
+      limits.checkEntrySize(path, length);
+      bytesExpanded += bytes;
+      limits.checkExpanded(path, bytesExpanded, zipFile == null ? fileInput.getCount() : zipBytesRead, bytes);
+    }
+  }
+}
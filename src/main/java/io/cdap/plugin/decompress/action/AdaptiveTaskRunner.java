@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs a sequence of tasks on a pool of worker threads, like {@link BoundedTaskRunner}, with the number of tasks in
+ * flight bounded by a memory budget and tuned to the measured throughput.
+ *
+ * Every task comes with an estimate of the memory it takes, and a task is only started if the estimates of the tasks
+ * in flight leave room for it in the budget. A task estimated to take more than the whole budget is started once no
+ * other task is running. Tasks are started in order, so a large task holds back the tasks after it until it fits.
+ *
+ * The concurrency starts at the given parallelism and moves by one task at a time between one and the maximum
+ * parallelism, climbing towards the highest throughput: every interval the bytes processed per second are compared
+ * with the previous interval, and the concurrency keeps moving in the same direction while throughput improves and
+ * turns around when it drops. When adding tasks makes no difference, as once the CPUs are saturated, the concurrency
+ * moves down. It is only raised when the current limit was actually reached, rather than the memory budget.
+ */
+final class AdaptiveTaskRunner {
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveTaskRunner.class);
+  private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+  // relative change in throughput below which two intervals are considered equally fast
+  private static final double TOLERANCE = 0.05;
+
+  /**
+   * A unit of work along with an estimate of the memory it takes.
+   */
+  interface Task extends BoundedTaskRunner.Task {
+    /**
+     * Returns the estimated number of bytes of memory taken by the task, called once before the task is started.
+     */
+    long getMemory();
+  }
+
+  private final String name;
+  private final int maxParallelism;
+  private final long memoryBudget;
+  private final LongSupplier progress;
+  private final long intervalNanos;
+  private int limit;
+  private int direction = 1;
+  private boolean limitReached;
+  private long intervalStart;
+  private long intervalBytes;
+  private double lastRate = -1;
+
+  /**
+   * @param parallelism the number of tasks in flight to start with
+   * @param maxParallelism the maximum number of tasks in flight
+   * @param memoryBudget the memory the estimates of the tasks in flight must fit in
+   * @param progress returns the number of bytes processed so far, including by the tasks in flight
+   * @param intervalNanos the time over which throughput is measured between two adjustments
+   */
+  AdaptiveTaskRunner(String name, int parallelism, int maxParallelism, long memoryBudget, LongSupplier progress,
+                     long intervalNanos) {
+    this.name = name;
+    this.maxParallelism = maxParallelism;
+    this.memoryBudget = memoryBudget;
+    this.progress = progress;
+    this.intervalNanos = intervalNanos;
+    this.limit = Math.min(parallelism, maxParallelism);
+  }
+
+  AdaptiveTaskRunner(String name, int parallelism, int maxParallelism, long memoryBudget, LongSupplier progress) {
+    this(name, parallelism, maxParallelism, memoryBudget, progress, ADJUST_INTERVAL_NANOS);
+  }
+
+  /**
+   * Runs the given tasks. Once a task, or the iterator, fails no further tasks are started, and the tasks in
+   * flight are waited for.
+   *
+   * @throws Exception the failure of the task if a single task failed, or an {@link java.io.IOException} carrying
+   *                   the first failure as its cause and the others as suppressed exceptions if several tasks failed
+   */
+  void run(Iterator<? extends Task> tasks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(
+      maxParallelism, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+    CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    Map<Future<Void>, Long> inFlight = new HashMap<>();
+    List<Exception> failures = new ArrayList<>();
+    long memoryInUse = 0;
+    Task next = null;
+    long memory = 0;
+    startInterval();
+    try {
+      try {
+        while (failures.isEmpty() && (next != null || tasks.hasNext())) {
+          if (next == null) {
+            next = tasks.next();
+            memory = next.getMemory();
+          }
+          boolean fits = inFlight.isEmpty() || memoryInUse + memory <= memoryBudget;
+          if (inFlight.size() < limit && fits) {
+            Task task = next;
+            inFlight.put(completionService.submit(() -> {
+              task.run();
+              return null;
+            }), memory);
+            memoryInUse += memory;
+            next = null;
+            continue;
+          }
+          if (fits) {
+            limitReached = true;
+          }
+          Future<Void> done = completionService.poll(intervalNanos, TimeUnit.NANOSECONDS);
+          if (done != null) {
+            BoundedTaskRunner.collect(done, failures);
+            memoryInUse -= inFlight.remove(done);
+          }
+          adjust();
+        }
+      } catch (RuntimeException e) {
+        // the iterator failed, which stops the run once the tasks in flight are done
+        failures.add(e);
+      }
+      for (Future<Void> done : inFlight.keySet()) {
+        BoundedTaskRunner.collect(done, failures);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    BoundedTaskRunner.throwIfFailed(name, failures);
+  }
+
+  /**
+   * Returns the current number of tasks allowed in flight.
+   */
+  int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Moves the concurrency limit once an interval is over, based on the throughput of that interval.
+   */
+  private void adjust() {
+    long now = System.nanoTime();
+    if (now - intervalStart < intervalNanos) {
+      return;
+    }
+    double rate = (progress.getAsLong() - intervalBytes) / (double) (now - intervalStart);
+    if (lastRate >= 0) {
+      if (rate < lastRate * (1 - TOLERANCE)) {
+        direction = -direction;
+      } else if (rate <= lastRate * (1 + TOLERANCE)) {
+        // the last move made no difference, so fewer tasks do just as well
+        direction = -1;
+      }
+    }
+    // raising the limit only helps if the limit is what holds tasks back
+    if (direction > 0 && !limitReached) {
+      lastRate = -1;
+    } else {
+      int previous = limit;
+      limit = Math.max(1, Math.min(maxParallelism, limit + direction));
+      // at either bound, the only way left to explore is back
+      if (limit == 1 || limit == maxParallelism) {
+        direction = limit == 1 ? 1 : -1;
+      }
+      if (limit != previous) {
+        LOG.debug("{} tasks ran at {} MB/s, now allowing {} tasks in flight", name,
+                  String.format("%.1f", rate * TimeUnit.SECONDS.toNanos(1) / (1024 * 1024)), limit);
+      }
+      lastRate = rate;
+    }
+    startInterval();
+  }
+
+  private void startInterval() {
+    intervalStart = System.nanoTime();
+    intervalBytes = progress.getAsLong();
+    limitReached = false;
+  }
+}
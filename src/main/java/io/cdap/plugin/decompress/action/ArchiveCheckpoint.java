@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Checkpoint of the entries of an archive that were already extracted, so that extracting the archive again after
+ * a failure resumes close to where the failed attempt stopped instead of from its first entry.
+ *
+ * Entries are numbered in the order they are stored in the archive, whether they are extracted or skipped, and the
+ * checkpoint holds the number of leading entries that are done, along with the name of the last of them. Entries may
+ * complete out of order when they are extracted concurrently, so an entry only counts once every entry before it is
+ * done as well.
+ *
+ * The checkpoint is a text file named {@code _<source file name>.checkpoint} in the destination directory, holding
+ * the length and modification time of the source file, how the archive is read, the number of entries done and the
+ * name of the last one, separated by tabs. It is rewritten every given number of entries and when the extraction
+ * stops, always through a temporary file, and deleted once the whole archive is extracted. A checkpoint left by a
+ * source file that changed since, or by an attempt that read the archive another way, is ignored.
+ */
+final class ArchiveCheckpoint implements Closeable {
+  static final String SUFFIX = ".checkpoint";
+  // the ways an archive is read, which may skip different entries for the same configuration
+  static final String STREAMED = "streamed";
+  static final String CENTRAL_DIRECTORY = "central-directory";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArchiveCheckpoint.class);
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final FileSystem fileSystem;
+  private final Path path;
+  private final FileStatus source;
+  private final String mode;
+  private final long interval;
+  private final long resumed;
+  private final String resumedName;
+  // entries completed after an entry that is still being extracted, by number
+  private final Map<Long, String> pending = new TreeMap<>();
+  private long committed;
+  private String committedName;
+  private long saved;
+  private boolean complete;
+
+  private ArchiveCheckpoint(FileSystem fileSystem, Path path, FileStatus source, String mode, long interval,
+                            long resumed, String resumedName) {
+    this.fileSystem = fileSystem;
+    this.path = path;
+    this.source = source;
+    this.mode = mode;
+    this.interval = interval;
+    this.resumed = resumed;
+    this.resumedName = resumedName;
+    this.committed = resumed;
+    this.committedName = resumedName;
+    this.saved = resumed;
+  }
+
+  /**
+   * Loads the checkpoint of the given source file extracted into the destination directory, or starts a new one if
+   * there is none, the source file changed since it was written or it was written while reading the archive another
+   * way.
+   *
+   * @param mode how the archive is read, {@link #STREAMED} or {@link #CENTRAL_DIRECTORY}
+   * @param interval the number of entries after which the checkpoint is rewritten
+   */
+  static ArchiveCheckpoint load(FileSystem fileSystem, Path source, Path dest, String mode,
+                                long interval) throws IOException {
+    Path path = new Path(dest, "_" + source.getName() + SUFFIX);
+    FileStatus status = fileSystem.getFileStatus(source);
+    Path temp = path.suffix(TEMP_SUFFIX);
+    // the temporary file is only complete if the attempt crashed after removing the previous checkpoint
+    Path existing = fileSystem.exists(path) ? path : fileSystem.exists(temp) ? temp : null;
+    if (existing != null) {
+      String line;
+      try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(fileSystem.open(existing), StandardCharsets.UTF_8))) {
+        line = reader.readLine();
+      }
+      String[] fields = line == null ? new String[0] : line.split("\t", 5);
+      // a truncated or corrupt checkpoint is ignored just like one of a file that changed
+      long[] numbers = fields.length == 5 ? parseNumbers(fields[0], fields[1], fields[3]) : null;
+      if (numbers == null || numbers[2] < 0) {
+        LOG.warn("Ignoring malformed checkpoint {}: {}", existing, line);
+      } else if (numbers[0] != status.getLen() || numbers[1] != status.getModificationTime()) {
+        LOG.info("Ignoring checkpoint {} since {} changed after it was written", existing, source);
+      } else if (!fields[2].equals(mode)) {
+        LOG.info("Ignoring checkpoint {} since {} was read {} rather than {} when it was written", existing, source,
+                 fields[2], mode);
+      } else {
+        LOG.info("Resuming the extraction of {} after the {} entries up to {} extracted by a previous attempt",
+                 source, numbers[2], fields[4]);
+        return new ArchiveCheckpoint(fileSystem, path, status, mode, interval, numbers[2], fields[4]);
+      }
+    }
+    return new ArchiveCheckpoint(fileSystem, path, status, mode, interval, 0, null);
+  }
+
+  /**
+   * Parses the given numeric fields of a checkpoint.
+   *
+   * @return the numbers, or null if one of the fields is not a number
+   */
+  @Nullable
+  private static long[] parseNumbers(String... fields) {
+    long[] numbers = new long[fields.length];
+    try {
+      for (int i = 0; i < fields.length; i++) {
+        numbers[i] = Long.parseLong(fields[i]);
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return numbers;
+  }
+
+  /**
+   * Checks whether the entry with the given number was extracted by a previous attempt, in which case it must be
+   * skipped. Entries must be checked in order.
+   *
+   * @throws IOException if the last entry extracted by the previous attempt has a different name, which means that
+   *                     the entries are not numbered the same way they were then
+   */
+  boolean isCommitted(long entry, String name) throws IOException {
+    if (entry == resumed - 1 && !name.equals(resumedName)) {
+      throw new IOException(String.format("Entry %d of %s is %s rather than %s as recorded in checkpoint %s. Delete " +
+                                            "the checkpoint to extract the archive from its start.", entry,
+                                          source.getPath(), name, resumedName, path));
+    }
+    return entry < resumed;
+  }
+
+  /**
+   * Records that the entry with the given number is done, because its output is complete or it was skipped,
+   * rewriting the checkpoint if enough entries were done since it was last written.
+   */
+  synchronized void commit(long entry, String name) throws IOException {
+    if (entry < committed) {
+      return;
+    }
+    pending.put(entry, name);
+    while (pending.containsKey(committed)) {
+      committedName = pending.remove(committed);
+      committed++;
+    }
+    if (committed - saved >= interval) {
+      save();
+    }
+  }
+
+  /**
+   * Marks the whole archive as extracted, deleting the checkpoint.
+   */
+  synchronized void complete() throws IOException {
+    complete = true;
+    fileSystem.delete(path, false);
+    fileSystem.delete(path.suffix(TEMP_SUFFIX), false);
+  }
+
+  /**
+   * Writes the entries completed since the checkpoint was last written, unless the whole archive was extracted.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!complete && committed > saved) {
+      save();
+    }
+  }
+
+  private void save() throws IOException {
+    Path temp = path.suffix(TEMP_SUFFIX);
+    try (Writer writer = new BufferedWriter(
+      new OutputStreamWriter(fileSystem.create(temp, true), StandardCharsets.UTF_8))) {
+      writer.write(String.format("%d\t%d\t%s\t%d\t%s\n", source.getLen(), source.getModificationTime(), mode,
+                                 committed, committedName));
+    }
+    if (fileSystem.exists(path) && !fileSystem.delete(path, false)) {
+      throw new IOException("Failed to replace checkpoint " + path);
+    }
+    if (!fileSystem.rename(temp, path)) {
+      throw new IOException(String.format("Failed to rename %s to %s", temp, path));
+    }
+    saved = committed;
+  }
+}
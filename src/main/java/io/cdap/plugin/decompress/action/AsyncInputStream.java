@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Input stream that reads ahead of its consumer on a reader thread, so that waiting for the file system overlaps
+ * with the work of the consuming thread, such as decompressing the data.
+ *
+ * The reader thread fills chunks and queues them for the consumer. At most {@code depth} chunks are queued and at
+ * most {@code buffers} chunks are allocated, and the reader blocks when the consumer falls behind. Chunks are reused
+ * once the consumer is done with them. The underlying stream is read and closed by the reader thread only.
+ *
+ * Skipping discards the chunks already queued and asks the reader thread to skip the rest on the underlying stream,
+ * so that skipped data is not read when the underlying stream can seek over it. Chunks record the offset they start
+ * at in the underlying stream, which tells the consumer how much the reader thread skipped.
+ */
+final class AsyncInputStream extends InputStream {
+  private static final Chunk END = new Chunk(0);
+
+  private final InputStream in;
+  private final int chunkSize;
+  private final int buffers;
+  private final BlockingQueue<Chunk> filled;
+  private final BlockingQueue<Chunk> free;
+  private final Future<?> reader;
+  private volatile boolean closed;
+  private volatile IOException failure;
+  // the offset the consumer asked to skip to, which the reader thread skips to before filling its next chunk
+  private volatile long skipTarget;
+  // the length of the underlying stream, known once the reader thread reached its end
+  private volatile long length;
+  private Chunk current;
+  private int position;
+  private long offset;
+
+  /**
+   * @param in the stream to read from the reader thread, which is closed by the reader thread
+   * @param executor the executor to run the reader thread on
+   * @param chunkSize the number of bytes read ahead at a time
+   * @param depth the maximum number of chunks waiting for the consumer
+   * @param buffers the maximum number of chunks allocated
+   */
+  AsyncInputStream(InputStream in, ExecutorService executor, int chunkSize, int depth, int buffers) {
+    this.in = in;
+    this.chunkSize = chunkSize;
+    this.buffers = buffers;
+    this.filled = new ArrayBlockingQueue<>(depth);
+    this.free = new ArrayBlockingQueue<>(buffers);
+    this.reader = executor.submit(() -> {
+      fill();
+      return null;
+    });
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if ((current == null || position == current.length) && !advance()) {
+      return -1;
+    }
+    int count = Math.min(len, current.length - position);
+    System.arraycopy(current.data, position, b, off, count);
+    position += count;
+    offset += count;
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (n <= 0) {
+      return 0;
+    }
+    long start = offset;
+    long target = start + n;
+    skipTarget = target;
+    while (offset < target) {
+      if ((current == null || position == current.length) && !advance()) {
+        break;
+      }
+      int count = (int) Math.min(target - offset, current.length - position);
+      position += count;
+      offset += count;
+    }
+    return offset - start;
+  }
+
+  @Override
+  public int available() {
+    return current == null ? 0 : current.length - position;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // stops the reader if it is still reading ahead, after which it closes the underlying stream
+    reader.cancel(true);
+  }
+
+  /**
+   * Moves on to the next chunk, returning false at the end of the stream.
+   */
+  private boolean advance() throws IOException {
+    if (current == END) {
+      return false;
+    }
+    if (current != null) {
+      free.add(current);
+    }
+    try {
+      current = filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the reader thread");
+    }
+    position = 0;
+    if (current == END) {
+      if (failure != null) {
+        throw failure;
+      }
+      // the reader thread may have skipped up to the end
+      offset = Math.max(offset, length);
+      return false;
+    }
+    // the reader thread skipped the data in between
+    offset = current.start;
+    return true;
+  }
+
+  /**
+   * Reads chunks until the end of the stream or a failure, then closes the stream and queues the end marker.
+   */
+  private void fill() {
+    int allocated = 0;
+    long readOffset = 0;
+    try {
+      boolean end = false;
+      while (!end && !closed) {
+        long target = skipTarget;
+        while (readOffset < target) {
+          long skipped = in.skip(target - readOffset);
+          if (skipped <= 0) {
+            // the rest is read and skipped by the consumer
+            break;
+          }
+          readOffset += skipped;
+        }
+        Chunk chunk = free.poll();
+        if (chunk == null && allocated < buffers) {
+          chunk = new Chunk(chunkSize);
+          allocated++;
+        } else if (chunk == null) {
+          chunk = free.take();
+        }
+        chunk.start = readOffset;
+        chunk.length = 0;
+        while (chunk.length < chunkSize) {
+          int read = in.read(chunk.data, chunk.length, chunkSize - chunk.length);
+          if (read == -1) {
+            end = true;
+            break;
+          }
+          chunk.length += read;
+        }
+        readOffset += chunk.length;
+        if (chunk.length > 0) {
+          filled.put(chunk);
+        }
+      }
+      length = readOffset;
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // the consumer closed the stream
+      return;
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    try {
+      filled.put(END);
+    } catch (InterruptedException e) {
+      // the consumer closed the stream
+    }
+  }
+
+  /**
+   * A buffer of data, the number of bytes it holds and the offset of its first byte in the underlying stream.
+   */
+  private static final class Chunk {
+    private final byte[] data;
+    private int length;
+    private long start;
+
+    private Chunk(int size) {
+      this.data = new byte[size];
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream that hands the data written to it over to a writer thread in chunks, so that the work done by the
+ * underlying stream, such as compressing the data, overlaps with the work of the thread producing the data.
+ *
+ * The first chunk is buffered before the writer thread is started, so outputs smaller than a chunk are written on
+ * the calling thread without any hand-off. Once started, at most {@code depth} chunks are waiting for the writer and
+ * at most {@code buffers} chunks are allocated, and writes block when the writer falls behind. Chunks are reused
+ * once the writer is done with them.
+ */
+final class AsyncOutputStream extends OutputStream {
+  private static final Chunk END = new Chunk(new byte[0]);
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final int chunkSize;
+  private final int depth;
+  private final int buffers;
+  private BlockingQueue<Chunk> filled;
+  private BlockingQueue<Chunk> free;
+  private Future<?> writer;
+  private Chunk current;
+  private int allocated;
+  private volatile IOException failure;
+  private boolean closed;
+
+  /**
+   * @param out the stream to write to from the writer thread, which is closed by the writer thread
+   * @param executor the executor to run the writer thread on
+   * @param chunkSize the number of bytes handed over to the writer thread at a time
+   * @param depth the maximum number of chunks waiting for the writer thread
+   * @param buffers the maximum number of chunks allocated
+   */
+  AsyncOutputStream(OutputStream out, ExecutorService executor, int chunkSize, int depth, int buffers) {
+    this.out = out;
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.depth = depth;
+    this.buffers = buffers;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    while (len > 0) {
+      if (current == null) {
+        current = nextChunk();
+      }
+      int count = Math.min(len, chunkSize - current.length);
+      System.arraycopy(b, off, current.data, current.length, count);
+      current.length += count;
+      off += count;
+      len -= count;
+      if (current.length == chunkSize) {
+        handOver(current);
+        current = null;
+        checkOpen();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (writer == null) {
+      // everything fit in the first chunk, so there is nothing to overlap
+      try (OutputStream closing = out) {
+        if (current != null) {
+          out.write(current.data, 0, current.length);
+        }
+      }
+      return;
+    }
+    try {
+      if (current != null) {
+        handOver(current);
+        current = null;
+      }
+      handOver(END);
+      writer.get();
+    } catch (InterruptedIOException e) {
+      // stops the writer, which closes the underlying stream
+      writer.cancel(true);
+      throw e;
+    } catch (InterruptedException e) {
+      writer.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+    } catch (ExecutionException e) {
+      throw new IOException("Writer thread failed", e.getCause());
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private Chunk nextChunk() throws IOException {
+    if (free == null || (free.isEmpty() && allocated < buffers)) {
+      allocated++;
+      return new Chunk(new byte[chunkSize]);
+    }
+    try {
+      Chunk chunk = free.take();
+      chunk.length = 0;
+      return chunk;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+    }
+  }
+
+  private void handOver(Chunk chunk) throws IOException {
+    if (writer == null) {
+      filled = new ArrayBlockingQueue<>(depth);
+      free = new ArrayBlockingQueue<>(buffers);
+      writer = executor.submit(() -> {
+        drain();
+        return null;
+      });
+    }
+    try {
+      filled.put(chunk);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+    }
+  }
+
+  /**
+   * Writes chunks until the end marker, then closes the stream. After a failure the remaining chunks are still
+   * taken, so that the producing thread never blocks on a writer that stopped.
+   */
+  private void drain() throws InterruptedException {
+    try {
+      for (Chunk chunk = filled.take(); chunk != END; chunk = filled.take()) {
+        if (failure == null) {
+          try {
+            out.write(chunk.data, 0, chunk.length);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        free.put(chunk);
+      }
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * A buffer of data and the number of bytes it holds.
+   */
+  private static final class Chunk {
+    private final byte[] data;
+    private int length;
+
+    private Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+}
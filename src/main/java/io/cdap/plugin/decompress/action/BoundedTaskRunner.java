@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a sequence of tasks on a bounded pool of worker threads.
+ *
+ * Tasks are pulled from the iterator only when a worker is free, so the iterator may be lazy. Once a task fails
+ * no further tasks are started; the tasks already running are allowed to finish and all of their failures are
+ * reported together. A failure of the iterator, such as a listing that fails part way, is reported the same way, so
+ * no task is still running once the run returns or throws.
+ */
+final class BoundedTaskRunner {
+
+  /**
+   * A unit of work that may throw a checked exception.
+   */
+  interface Task {
+    void run() throws Exception;
+  }
+
+  private BoundedTaskRunner() {
+  }
+
+  /**
+   * Runs the given tasks with at most {@code parallelism} of them in flight. With a parallelism of one the tasks
+   * are run on the calling thread.
+   *
+   * @param name name used for the worker threads and in the aggregated failure message
+   * @param parallelism maximum number of tasks to run concurrently
+   * @param tasks the tasks to run
+   * @throws Exception the failure of the task if a single task failed, or an {@link IOException} carrying the
+   *                   first failure as its cause and the others as suppressed exceptions if several tasks failed
+   */
+  static void run(String name, int parallelism, Iterator<? extends Task> tasks) throws Exception {
+    if (parallelism <= 1) {
+      while (tasks.hasNext()) {
+        tasks.next().run();
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      parallelism, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+    CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    List<Exception> failures = new ArrayList<>();
+    int inFlight = 0;
+    try {
+      try {
+        while (failures.isEmpty() && tasks.hasNext()) {
+          if (inFlight == parallelism) {
+            collect(completionService.take(), failures);
+            inFlight--;
+            continue;
+          }
+          Task task = tasks.next();
+          completionService.submit(() -> {
+            task.run();
+            return null;
+          });
+          inFlight++;
+        }
+      } catch (RuntimeException e) {
+        // the iterator failed, which stops the run once the tasks in flight are done
+        failures.add(e);
+      }
+      while (inFlight > 0) {
+        collect(completionService.take(), failures);
+        inFlight--;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    throwIfFailed(name, failures);
+  }
+
+  /**
+   * Throws the given failures as a single exception, or does nothing if the list is empty.
+   */
+  static void throwIfFailed(String name, List<? extends Exception> failures) throws Exception {
+    if (failures.isEmpty()) {
+      return;
+    }
+    if (failures.size() == 1) {
+      throw failures.get(0);
+    }
+    IOException aggregate = new IOException(String.format("%d %s tasks failed", failures.size(), name),
+                                            failures.get(0));
+    for (Exception failure : failures.subList(1, failures.size())) {
+      aggregate.addSuppressed(failure);
+    }
+    throw aggregate;
+  }
+
+  static void collect(Future<Void> future, List<Exception> failures) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      failures.add(cause instanceof Exception ? (Exception) cause : e);
+    }
+  }
+}
@@ -16,6 +16,9 @@
 package io.cdap.plugin.decompress.action;
 
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Striped;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
@@ -23,26 +26,21 @@ import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.PipelineConfigurer;
 import io.cdap.cdap.etl.api.action.Action;
 import io.cdap.cdap.etl.api.action.ActionContext;
-import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.ArchiveException;
-import org.apache.commons.compress.archivers.ArchiveInputStream;
-import org.apache.commons.compress.archivers.ArchiveStreamFactory;
-import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorInputStream;
-import org.apache.commons.compress.compressors.CompressorStreamFactory;
-import org.apache.commons.compress.utils.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.PathFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Action to expand compressed or archived files before processing in a pipeline
@@ -53,9 +51,10 @@ import java.util.regex.Pattern;
 @Description("Action to expand compressed or archived files before processing")
 public class DecompressAction extends Action {
   private static final Logger LOG = LoggerFactory.getLogger(DecompressAction.class);
-  private static final int BUFFER_SIZE = 8024; // Matches default buffer size in IOUtils
+  private static final int DESTINATION_LOCK_STRIPES = 1024;
 
   private DecompressActionConfig config;
+  private FileExpander expander;
 
   public DecompressAction(DecompressActionConfig config) {
     this.config = config;
@@ -78,127 +77,120 @@ public class DecompressAction extends Action {
     Path dest = new Path(config.getDestFilePath());
 
     FileSystem fileSystem = source.getFileSystem(new Configuration());
-    fileSystem.mkdirs(dest.getParent());
-
-    // Convert a single file
-    if (fileSystem.exists(source) && fileSystem.getFileStatus(source).isFile()) {
-      convertSingleFile(source, dest, fileSystem);
-    } else {
-      // Convert all the files in a directory
-      PathFilter filter = new PathFilter() {
-        private final Pattern pattern = Pattern.compile(config.getFileRegex());
-
-        @Override
-        public boolean accept(Path path) {
-          return pattern.matcher(path.getName()).matches();
-        }
-      };
-      FileStatus[] listFiles = fileSystem.globStatus(source, filter);
-      if (listFiles == null || listFiles.length == 0 || (listFiles.length == 1 && listFiles[0].isDirectory())) {
-        // try again without globbing action
-        listFiles = fileSystem.listStatus(source, filter);
-      }
-
-      if (listFiles.length == 0) {
-        LOG.warn("Not converting any files from source {} matching regular expression {}",
-                 source.toString(), config.getFileRegex());
-      }
-
-      if (fileSystem.exists(dest) && fileSystem.isFile(dest)) {
-        throw new IllegalArgumentException(
-          String.format("Destination %s needs to be a directory since the source is a " +
-                          "directory", config.getDestFilePath()));
-      }
-      // create destination directory if necessary
-      fileSystem.mkdirs(dest);
-
-      for (FileStatus file : listFiles) {
-        if (!file.isDirectory()) { // ignore directories
-          source = file.getPath();
-          convertSingleFile(source, dest, fileSystem);
-        }
-      }
+    expander = new FileExpander(config, fileSystem.getConf());
+    ExpansionMetrics metrics = new ExpansionMetrics(context.getMetrics());
+    try {
+      convertFiles(expander.listFiles(source, dest, fileSystem), source, dest, fileSystem, metrics);
+    } catch (UncheckedIOException e) {
+      throw new IOException("Failed to list the files of " + source, e.getCause());
     }
   }
 
-  private void convertSingleFile(Path source, Path dest, FileSystem fileSystem)
-    throws ArchiveException, CompressorException, IOException, IllegalArgumentException {
-    switch (config.getArchivedOrCompressed().toLowerCase()) {
-      case "compressed" :
-        processCompressedFiles(source, dest, fileSystem);
-        break;
-      case "archived" :
-        processArchiveFiles(source, dest, fileSystem);
-        break;
-      case "archived then compressed":
-        Path uncompressedFile = processCompressedFiles(source, dest, fileSystem);
-        processArchiveFiles(uncompressedFile, dest, fileSystem);
-        fileSystem.delete(uncompressedFile, false);
-        break;
-      default:
-        throw new IllegalArgumentException("archivedOrCompressed must be one of " +
-                                             "'archived','compressed', or 'archive then compressed' " +
-                                             "but was: " + config.getArchivedOrCompressed());
+  /**
+   * Expands the given files into the destination, running up to the configured parallelism of them at the same
+   * time. Files that expand to the same destination path are never expanded concurrently. If a manifest is
+   * configured, files it lists as already expanded are skipped and newly expanded files are added to it. With staged
+   * writes, the output of each file is committed once it is complete and a marker is written if every file was
+   * expanded. Metrics are emitted as each file completes and summed up in a log line once all the files are done.
+   *
+   * With a max parallelism or a memory budget, the number of files expanded at the same time is tuned to the
+   * throughput, measured in bytes read from the source files, and bounded by the estimated memory of the files.
+   */
+  private void convertFiles(Iterator<FileStatus> files, Path source, Path dest, FileSystem fileSystem,
+                            ExpansionMetrics metrics) throws Exception {
+    ProcessedFileManifest manifest = null;
+    if (config.getManifestPath() != null) {
+      Path manifestPath = new Path(config.getManifestPath());
+      manifest = ProcessedFileManifest.load(manifestPath.getFileSystem(fileSystem.getConf()), manifestPath);
     }
-  }
+    ProcessedFileManifest processedFiles = manifest;
+    StagedCommitter committer = null;
+    if (config.getStagedWrites()) {
+      committer = new StagedCommitter(fileSystem, dest);
+      committer.setup();
+    }
+    StagedCommitter stagedCommitter = committer;
+    Striped<Lock> destinationLocks = Striped.lock(DESTINATION_LOCK_STRIPES);
+    AtomicInteger listedFiles = new AtomicInteger();
+    // bytes read by the files done, and the trackers of the files in flight, to measure throughput as files progress
+    AtomicLong bytesDone = new AtomicLong();
+    Set<ExpansionTracker> trackers = ConcurrentHashMap.newKeySet();
+    Function<FileStatus, BoundedTaskRunner.Task> expandTask = file -> () -> {
+      listedFiles.incrementAndGet();
+      if (processedFiles != null && processedFiles.contains(file)) {
+        metrics.recordSkipped();
+        return;
+      }
+      Lock lock = destinationLocks.get(expander.getDestinationKey(file.getPath(), dest));
+      lock.lock();
+      try {
+        ExpansionTracker tracker = new ExpansionTracker(file, expander.getLimits());
+        boolean expanded = false;
+        trackers.add(tracker);
+        try {
+          expanded = expander.expand(file.getPath(), dest, fileSystem, tracker, stagedCommitter);
+        } finally {
+          trackers.remove(tracker);
+          bytesDone.addAndGet(tracker.getBytesRead());
+          metrics.record(tracker, expanded);
+        }
+        if (expanded && processedFiles != null) {
+          processedFiles.record(file, tracker.getFingerprint());
+        }
+      } finally {
+        lock.unlock();
+      }
+    };
+    boolean completed = false;
+    try {
+      if (config.getMaxParallelism() == null && config.getMemoryBudget() == null) {
+        BoundedTaskRunner.run("decompress", config.getParallelism(), Iterators.transform(files, expandTask));
+      } else {
+        int maxParallelism = config.getMaxParallelism() == null ? config.getParallelism() : config.getMaxParallelism();
+        long memoryBudget = config.getMemoryBudget() == null ? Long.MAX_VALUE : config.getMemoryBudget();
+        AdaptiveTaskRunner runner = new AdaptiveTaskRunner("decompress", config.getParallelism(), maxParallelism,
+                                                           memoryBudget, () -> {
+          long bytes = bytesDone.get();
+          for (ExpansionTracker tracker : trackers) {
+            bytes += tracker.getBytesRead();
+          }
+          return bytes;
+        });
+        runner.run(Iterators.transform(files, file -> new AdaptiveTaskRunner.Task() {
+          @Override
+          public long getMemory() {
+            // files skipped according to the manifest are not opened
+            return processedFiles != null && processedFiles.contains(file) ? 0
+              : expander.estimateMemory(file, fileSystem);
+          }
 
-  private void processArchiveFiles(Path source, Path dest, FileSystem fileSystem) throws ArchiveException, IOException {
-    Path destPathWithFolder = new Path(dest.toString() + "/" + source.getName().substring(0, source.getName().lastIndexOf(".")));
-    fileSystem.mkdirs(destPathWithFolder);
-    try (ArchiveInputStream input = new ArchiveStreamFactory()
-      .createArchiveInputStream(new BufferedInputStream(fileSystem.open(source)))) {
-      ArchiveEntry entry = input.getNextEntry();
-      // iterates over entries in the archive file
-      while (entry != null) {
-        if (input.canReadEntryData(entry)) {
-          Path actualDestPath = new Path(destPathWithFolder.toString() + "/" + entry.getName());
-          if (!entry.isDirectory()) {
-            // if the entry is a file, extracts it
-            BufferedOutputStream out = new BufferedOutputStream(fileSystem.create(actualDestPath), BUFFER_SIZE);
-            IOUtils.copy(input, out);
-            out.close();
-          } else {
-            // if the entry is a directory, make the directory
-            fileSystem.mkdirs(actualDestPath);
+          @Override
+          public void run() throws Exception {
+            expandTask.apply(file).run();
           }
-        } else {
-          LOG.warn(String.format("Archive entry is using a feature that is not supported yet. " +
-                                   "Skipping this entry. Source: %s Dest: %s", source.toString(), dest.toString()));
-        }
-        entry = input.getNextEntry();
+        }));
       }
-    } catch (ArchiveException e) {
-      if (!config.getContinueOnError()) {
-        throw new ArchiveException(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
+      completed = true;
+    } finally {
+      // keep the progress made so far, so that a failed run can be resumed
+      if (manifest != null) {
+        manifest.close();
       }
-      LOG.warn(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
-    } catch (IOException e) {
-      if (!config.getContinueOnError()) {
-        throw new IOException(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
+      if (committer != null) {
+        committer.finish(completed && metrics.getFilesFailed() == 0);
       }
-      LOG.warn(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
+      metrics.logSummary();
     }
-  }
-
-  private Path processCompressedFiles(Path source, Path dest, FileSystem fileSystem) throws CompressorException, IOException {
-    Path actualDestPath = (fileSystem.isDirectory(dest))
-      ? new Path(dest.toString() + "/" + source.getName().substring(0, source.getName().lastIndexOf(".")))
-      : dest;
-    try (CompressorInputStream input = new CompressorStreamFactory()
-      .createCompressorInputStream(new BufferedInputStream(fileSystem.open(source)));
-         BufferedOutputStream out = new BufferedOutputStream(fileSystem.create(actualDestPath), BUFFER_SIZE)) {
-      IOUtils.copy(input, out);
-    } catch (CompressorException e) {
-      if (!config.getContinueOnError()) {
-        throw new CompressorException(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
-      }
-      LOG.warn(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
-    } catch (IOException e) {
-      if (!config.getContinueOnError()) {
-        throw new IOException(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
-      }
-      LOG.warn(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
+    if (listedFiles.get() == 0) {
+      LOG.warn("Not converting any files from source {} matching regular expression {}",
+               source.toString(), config.getFileRegex());
+    }
+    if (metrics.getFilesSkipped() > 0) {
+      LOG.info("Skipped {} files that were already expanded according to manifest {}", metrics.getFilesSkipped(),
+               config.getManifestPath());
+    }
+    if (metrics.getFilesFailed() > 0) {
+      LOG.warn("Failed to expand {} of {} files into {}", metrics.getFilesFailed(), listedFiles.get(), dest);
     }
-    return actualDestPath;
   }
 }
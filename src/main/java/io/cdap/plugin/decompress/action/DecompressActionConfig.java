@@ -23,13 +23,16 @@ import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.cdap.api.plugin.PluginProperties;
 import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.plugin.decompress.common.CodecBackend;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.annotation.Nullable;
 
 /**
@@ -41,6 +44,37 @@ public class DecompressActionConfig extends PluginConfig {
   public static final String FILE_REGEXP = "fileRegex";
   public static final String ARCHIVED_OR_COMPRESSED = "archivedOrCompressed";
   public static final String CONTINUE_ON_ERROR = "continueOnError";
+  public static final String PARALLELISM = "parallelism";
+  public static final String THREADS_PER_FILE = "threadsPerFile";
+  public static final String CODEC_BACKEND = "codecBackend";
+  public static final String DECOMPRESS_MEMBERS_IN_PARALLEL = "decompressMembersInParallel";
+  public static final String MANIFEST_PATH = "manifestPath";
+  public static final String READ_BUFFER_SIZE = "readBufferSize";
+  public static final String WRITE_BUFFER_SIZE = "writeBufferSize";
+  public static final String AUTO = "auto";
+  public static final String STREAMING_LISTING = "streamingListing";
+  public static final String RECURSIVE = "recursive";
+  public static final String STAGED_WRITES = "stagedWrites";
+  public static final String COALESCE_THRESHOLD = "coalesceThreshold";
+  public static final String COALESCE_TARGET_SIZE = "coalesceTargetSize";
+  public static final String ENTRY_INCLUDE_REGEX = "entryIncludeRegex";
+  public static final String ENTRY_EXCLUDE_REGEX = "entryExcludeRegex";
+  public static final String OUTPUT_CODEC = "outputCodec";
+  public static final String PIPELINE_QUEUE_DEPTH = "pipelineQueueDepth";
+  public static final String PIPELINE_BUFFER_COUNT = "pipelineBufferCount";
+  public static final String MAX_NESTING_DEPTH = "maxNestingDepth";
+  public static final String MAX_FILE_EXPANDED_BYTES = "maxFileExpandedBytes";
+  public static final String MAX_RUN_EXPANDED_BYTES = "maxRunExpandedBytes";
+  public static final String MAX_COMPRESSION_RATIO = "maxCompressionRatio";
+  public static final String MAX_ENTRIES = "maxEntries";
+  public static final String MAX_ENTRY_SIZE = "maxEntrySize";
+  public static final String OUTPUT_PART_SIZE = "outputPartSize";
+  public static final String OUTPUT_DIGESTS = "outputDigests";
+  public static final String MAX_PARALLELISM = "maxParallelism";
+  public static final String MEMORY_BUDGET = "memoryBudget";
+  public static final String CHECKPOINT_INTERVAL = "checkpointInterval";
+
+  private static final long DEFAULT_COALESCE_TARGET_SIZE = 128 * 1024 * 1024;
 
   @Name(SOURCE_FILE_PATH)
   @Macro
@@ -60,8 +94,8 @@ public class DecompressActionConfig extends PluginConfig {
 
   @Name(ARCHIVED_OR_COMPRESSED)
   @Macro
-  @Description("Are you processing archived files (E.g. .tar or .zip), compressed files (E.g. .gz or .bz2), or " +
-    "archived then compressed filed (E.g. .tar.gz)")
+  @Description("Are you processing archived files (E.g. .tar or .zip), compressed files (E.g. .gz or .bz2), " +
+    "archived then compressed filed (E.g. .tar.gz), or 'auto' to detect the format of each file from its contents")
   private final String archivedOrCompressed;
 
   @Name(CONTINUE_ON_ERROR)
@@ -70,6 +104,216 @@ public class DecompressActionConfig extends PluginConfig {
   @Description("Set to true if this plugin should ignore errors.")
   private final Boolean continueOnError;
 
+  @Name(PARALLELISM)
+  @Macro
+  @Nullable
+  @Description("The maximum number of files to expand at the same time when the source is a directory or glob. " +
+    "Defaults to 1.")
+  private final Integer parallelism;
+
+  @Name(THREADS_PER_FILE)
+  @Macro
+  @Nullable
+  @Description("The number of threads used to expand a single file when its format allows it, such as " +
+    "extracting the entries of a ZIP archive concurrently. Defaults to 1.")
+  private final Integer threadsPerFile;
+
+  @Name(CODEC_BACKEND)
+  @Macro
+  @Nullable
+  @Description("The implementation used to decompress files: 'commons-compress', 'hadoop-native' or 'auto'. " +
+    "'auto' uses the Hadoop codec for the file extension when its native library is loaded, and Commons Compress " +
+    "otherwise. Defaults to 'commons-compress'.")
+  private final String codecBackend;
+
+  @Name(DECOMPRESS_MEMBERS_IN_PARALLEL)
+  @Macro
+  @Nullable
+  @Description("Set to true to decompress gzip files made of several members and bzip2 files made of several " +
+    "streams, such as those written by bgzip or pbzip2, on 'threadsPerFile' threads. Defaults to false.")
+  private final Boolean decompressMembersInParallel;
+
+  @Name(MANIFEST_PATH)
+  @Macro
+  @Nullable
+  @Description("Path of a manifest file that records the source files already expanded. When set, source files " +
+    "whose length and modification time have not changed since they were recorded are skipped.")
+  private final String manifestPath;
+
+  @Name(READ_BUFFER_SIZE)
+  @Macro
+  @Nullable
+  @Description("Size in bytes of the buffer used to read source files, or 'auto' to choose it from the file " +
+    "system and the file length. Defaults to 'auto'.")
+  private final String readBufferSize;
+
+  @Name(WRITE_BUFFER_SIZE)
+  @Macro
+  @Nullable
+  @Description("Size in bytes of the buffer used to write expanded files, or 'auto' to choose it from the " +
+    "file system. Defaults to 'auto'.")
+  private final String writeBufferSize;
+
+  @Name(STREAMING_LISTING)
+  @Macro
+  @Nullable
+  @Description("Set to true to list the source with remote iterators and start expanding files as they are " +
+    "found, instead of listing the whole source first. Defaults to false.")
+  private final Boolean streamingListing;
+
+  @Name(RECURSIVE)
+  @Macro
+  @Nullable
+  @Description("Set to true to also expand the files in the subdirectories of the source. Files are then listed " +
+    "as with streaming listing. Defaults to false.")
+  private final Boolean recursive;
+
+  @Name(STAGED_WRITES)
+  @Macro
+  @Nullable
+  @Description("Set to true to write the output of each source file into a hidden _temporary directory under the " +
+    "destination and move it into place once the whole file is expanded, and to write a _SUCCESS marker once " +
+    "every file is. Defaults to false.")
+  private final Boolean stagedWrites;
+
+  @Name(COALESCE_THRESHOLD)
+  @Macro
+  @Nullable
+  @Description("Archive entries smaller than this many bytes are appended to combined part files instead of " +
+    "being written as files of their own, with a sidecar index of the offset and length of each entry. Leave " +
+    "empty to write every entry as a file of its own.")
+  private final Long coalesceThreshold;
+
+  @Name(COALESCE_TARGET_SIZE)
+  @Macro
+  @Nullable
+  @Description("The size in bytes at which a part file of coalesced entries is closed and the next one is " +
+    "started. Defaults to 134217728 (128 MB).")
+  private final Long coalesceTargetSize;
+
+  @Name(ENTRY_INCLUDE_REGEX)
+  @Macro
+  @Nullable
+  @Description("A regular expression that the names of archive entries must match, such as .*\\.csv, to be " +
+    "extracted. Other entries are skipped without reading their data. Leave empty to extract every entry.")
+  private final String entryIncludeRegex;
+
+  @Name(ENTRY_EXCLUDE_REGEX)
+  @Macro
+  @Nullable
+  @Description("A regular expression for the names of archive entries that are skipped without reading their " +
+    "data, such as .*\\.jpg. Applies after the entry include pattern. Leave empty to skip no entry.")
+  private final String entryExcludeRegex;
+
+  @Name(OUTPUT_CODEC)
+  @Macro
+  @Nullable
+  @Description("Codec the expanded files are compressed with as they are written, on a separate thread from " +
+    "decompression: 'none', 'bzip2', which Hadoop input formats can split, 'gzip' or 'deflate'. Defaults to 'none'.")
+  private final String outputCodec;
+
+  @Name(PIPELINE_QUEUE_DEPTH)
+  @Macro
+  @Nullable
+  @Description("Set to pipeline the copy of every file: source files are read ahead on a reader thread and " +
+    "outputs are written on a writer thread, with this many buffers queued between each thread and the thread " +
+    "decompressing the data. Leave empty to read, decompress and write on a single thread.")
+  private final Integer pipelineQueueDepth;
+
+  @Name(PIPELINE_BUFFER_COUNT)
+  @Macro
+  @Nullable
+  @Description("The maximum number of buffers allocated by each reader and writer thread of a pipelined copy. " +
+    "Buffers have the size of the read or write buffer. Defaults to one more than the pipeline queue depth.")
+  private final Integer pipelineBufferCount;
+
+  @Name(MAX_NESTING_DEPTH)
+  @Macro
+  @Nullable
+  @Description("The maximum number of archive or compression layers nested inside archives that are expanded " +
+    "from the entry stream, such as 1 for a zip of gzip files or 2 for a tar of tar.gz files. Defaults to 0, " +
+    "which writes nested archives and compressed files as they are.")
+  private final Integer maxNestingDepth;
+
+  @Name(MAX_FILE_EXPANDED_BYTES)
+  @Macro
+  @Nullable
+  @Description("The maximum number of bytes a single file may expand to. Expanding a file stops as soon as it " +
+    "writes more, and the file fails. Defaults to no limit.")
+  private final Long maxFileExpandedBytes;
+
+  @Name(MAX_RUN_EXPANDED_BYTES)
+  @Macro
+  @Nullable
+  @Description("The maximum number of bytes all the files of a run may expand to together. Once it is reached, " +
+    "the file being expanded and all the files after it fail. Defaults to no limit.")
+  private final Long maxRunExpandedBytes;
+
+  @Name(MAX_COMPRESSION_RATIO)
+  @Macro
+  @Nullable
+  @Description("The maximum ratio of the bytes a file expands to over the bytes read from it, checked once the " +
+    "file has expanded to more than 1 MB. Defaults to no limit.")
+  private final Double maxCompressionRatio;
+
+  @Name(MAX_ENTRIES)
+  @Macro
+  @Nullable
+  @Description("The maximum number of entries extracted from a single archive, including the entries of nested " +
+    "archives. Defaults to no limit.")
+  private final Long maxEntries;
+
+  @Name(MAX_ENTRY_SIZE)
+  @Macro
+  @Nullable
+  @Description("The maximum number of bytes written to a single output, which is an archive entry or a " +
+    "decompressed file. Defaults to no limit.")
+  private final Long maxEntrySize;
+
+  @Name(OUTPUT_PART_SIZE)
+  @Macro
+  @Nullable
+  @Description("The target size in bytes of the parts a decompressed file is split into. When set, a compressed " +
+    "file is decompressed to files named part-NNNNN in a directory named after the file, each ending at the first " +
+    "newline after the target size so that no line spans two parts. Parts are closed in the background while the " +
+    "next one is written, up to the number of threads per file at a time. Archive entries are not split. " +
+    "Defaults to a single output file.")
+  private final Long outputPartSize;
+
+  @Name(OUTPUT_DIGESTS)
+  @Macro
+  @Nullable
+  @Description("Comma separated list of digests computed over every expanded file as it is written: 'crc32c', 'md5' " +
+    "or 'sha-256'. The digests of the files expanded from a source file are written to a manifest named " +
+    "_<source file name>.digests next to them. MD5 and SHA-256 are computed on a separate thread. " +
+    "Defaults to no digests.")
+  private final String outputDigests;
+
+  @Name(MAX_PARALLELISM)
+  @Macro
+  @Nullable
+  @Description("The maximum number of files to expand at the same time when the number of files expanded at the same " +
+    "time is tuned to the measured throughput. When set, it starts at the parallelism and moves between 1 and this " +
+    "maximum towards the highest throughput. Defaults to a fixed number of files set by the parallelism.")
+  private final Integer maxParallelism;
+
+  @Name(MEMORY_BUDGET)
+  @Macro
+  @Nullable
+  @Description("The number of bytes of memory the files expanded at the same time may take together, as " +
+    "estimated from their format, buffers and, for xz and lzma files, the dictionary size in their header. A file " +
+    "is only started once it fits in the budget. Defaults to no budget.")
+  private final Long memoryBudget;
+
+  @Name(CHECKPOINT_INTERVAL)
+  @Macro
+  @Nullable
+  @Description("Set to a number of entries to record, every that many entries, how far the extraction of each " +
+    "archive got in a _<file name>.checkpoint file in the destination, so that a retry after a failure skips the " +
+    "entries that were already extracted. Can not be combined with staged writes, coalescing or output digests. " +
+    "Leave empty to always extract archives from their start.")
+  private final Long checkpointInterval;
+
 
   public DecompressActionConfig(String sourceFilePath, String destFilePath, @Nullable String fileRegex,
                                 String archivedOrCompressed, @Nullable Boolean continueOnError) {
@@ -78,14 +322,70 @@ public class DecompressActionConfig extends PluginConfig {
     this.continueOnError = (continueOnError == null) ? false : continueOnError;
     this.archivedOrCompressed = archivedOrCompressed;
     this.fileRegex = (Strings.isNullOrEmpty(fileRegex)) ? ".*" : fileRegex;
+    this.parallelism = null;
+    this.threadsPerFile = null;
+    this.codecBackend = null;
+    this.decompressMembersInParallel = null;
+    this.manifestPath = null;
+    this.readBufferSize = null;
+    this.writeBufferSize = null;
+    this.streamingListing = null;
+    this.recursive = null;
+    this.stagedWrites = null;
+    this.coalesceThreshold = null;
+    this.coalesceTargetSize = null;
+    this.entryIncludeRegex = null;
+    this.entryExcludeRegex = null;
+    this.outputCodec = null;
+    this.pipelineQueueDepth = null;
+    this.pipelineBufferCount = null;
+    this.maxNestingDepth = null;
+    this.maxFileExpandedBytes = null;
+    this.maxRunExpandedBytes = null;
+    this.maxCompressionRatio = null;
+    this.maxEntries = null;
+    this.maxEntrySize = null;
+    this.outputPartSize = null;
+    this.outputDigests = null;
+    this.maxParallelism = null;
+    this.memoryBudget = null;
+    this.checkpointInterval = null;
   }
 
-  private DecompressActionConfig(Builder builder) {
+  DecompressActionConfig(Builder builder) {
     sourceFilePath = builder.sourceFilePath;
     destFilePath = builder.destFilePath;
     fileRegex = builder.fileRegex;
     archivedOrCompressed = builder.archivedOrCompressed;
     continueOnError = builder.continueOnError;
+    parallelism = builder.parallelism;
+    threadsPerFile = builder.threadsPerFile;
+    codecBackend = builder.codecBackend;
+    decompressMembersInParallel = builder.decompressMembersInParallel;
+    manifestPath = builder.manifestPath;
+    readBufferSize = builder.readBufferSize;
+    writeBufferSize = builder.writeBufferSize;
+    streamingListing = builder.streamingListing;
+    recursive = builder.recursive;
+    stagedWrites = builder.stagedWrites;
+    coalesceThreshold = builder.coalesceThreshold;
+    coalesceTargetSize = builder.coalesceTargetSize;
+    entryIncludeRegex = builder.entryIncludeRegex;
+    entryExcludeRegex = builder.entryExcludeRegex;
+    outputCodec = builder.outputCodec;
+    pipelineQueueDepth = builder.pipelineQueueDepth;
+    pipelineBufferCount = builder.pipelineBufferCount;
+    maxNestingDepth = builder.maxNestingDepth;
+    maxFileExpandedBytes = builder.maxFileExpandedBytes;
+    maxRunExpandedBytes = builder.maxRunExpandedBytes;
+    maxCompressionRatio = builder.maxCompressionRatio;
+    maxEntries = builder.maxEntries;
+    maxEntrySize = builder.maxEntrySize;
+    outputPartSize = builder.outputPartSize;
+    outputDigests = builder.outputDigests;
+    maxParallelism = builder.maxParallelism;
+    memoryBudget = builder.memoryBudget;
+    checkpointInterval = builder.checkpointInterval;
   }
 
   public static Builder newBuilder() {
@@ -99,6 +399,34 @@ public class DecompressActionConfig extends PluginConfig {
     builder.fileRegex = copy.getFileRegex();
     builder.archivedOrCompressed = copy.getArchivedOrCompressed();
     builder.continueOnError = copy.getContinueOnError();
+    builder.parallelism = copy.parallelism;
+    builder.threadsPerFile = copy.getThreadsPerFile();
+    builder.codecBackend = copy.codecBackend;
+    builder.decompressMembersInParallel = copy.getDecompressMembersInParallel();
+    builder.manifestPath = copy.getManifestPath();
+    builder.readBufferSize = copy.readBufferSize;
+    builder.writeBufferSize = copy.writeBufferSize;
+    builder.streamingListing = copy.getStreamingListing();
+    builder.recursive = copy.getRecursive();
+    builder.stagedWrites = copy.getStagedWrites();
+    builder.coalesceThreshold = copy.getCoalesceThreshold();
+    builder.coalesceTargetSize = copy.coalesceTargetSize;
+    builder.entryIncludeRegex = copy.getEntryIncludeRegex();
+    builder.entryExcludeRegex = copy.getEntryExcludeRegex();
+    builder.outputCodec = copy.outputCodec;
+    builder.pipelineQueueDepth = copy.getPipelineQueueDepth();
+    builder.pipelineBufferCount = copy.getPipelineBufferCount();
+    builder.maxNestingDepth = copy.getMaxNestingDepth();
+    builder.maxFileExpandedBytes = copy.getMaxFileExpandedBytes();
+    builder.maxRunExpandedBytes = copy.getMaxRunExpandedBytes();
+    builder.maxCompressionRatio = copy.getMaxCompressionRatio();
+    builder.maxEntries = copy.getMaxEntries();
+    builder.maxEntrySize = copy.getMaxEntrySize();
+    builder.outputPartSize = copy.getOutputPartSize();
+    builder.outputDigests = copy.outputDigests;
+    builder.maxParallelism = copy.getMaxParallelism();
+    builder.memoryBudget = copy.getMemoryBudget();
+    builder.checkpointInterval = copy.getCheckpointInterval();
     return builder;
   }
 
@@ -123,6 +451,148 @@ public class DecompressActionConfig extends PluginConfig {
     return (Strings.isNullOrEmpty(fileRegex)) ? ".*" : fileRegex;
   }
 
+  public int getParallelism() {
+    return parallelism == null ? 1 : parallelism;
+  }
+
+  /**
+   * Returns whether the parallelism was set, rather than left to its default.
+   */
+  boolean isParallelismSet() {
+    return parallelism != null;
+  }
+
+  public int getThreadsPerFile() {
+    return threadsPerFile == null ? 1 : threadsPerFile;
+  }
+
+  public CodecBackend getCodecBackend() {
+    return Strings.isNullOrEmpty(codecBackend) ? CodecBackend.COMMONS_COMPRESS : CodecBackend.fromValue(codecBackend);
+  }
+
+  public boolean getDecompressMembersInParallel() {
+    return decompressMembersInParallel != null && decompressMembersInParallel;
+  }
+
+  @Nullable
+  public String getManifestPath() {
+    return Strings.isNullOrEmpty(manifestPath) ? null : manifestPath;
+  }
+
+  /**
+   * Returns the read buffer size in bytes, or null if it should be chosen automatically.
+   */
+  @Nullable
+  public Integer getReadBufferSize() {
+    return parseBufferSize(readBufferSize);
+  }
+
+  /**
+   * Returns the write buffer size in bytes, or null if it should be chosen automatically.
+   */
+  @Nullable
+  public Integer getWriteBufferSize() {
+    return parseBufferSize(writeBufferSize);
+  }
+
+  public boolean getStreamingListing() {
+    return streamingListing != null && streamingListing;
+  }
+
+  public boolean getRecursive() {
+    return recursive != null && recursive;
+  }
+
+  public boolean getStagedWrites() {
+    return stagedWrites != null && stagedWrites;
+  }
+
+  @Nullable
+  public Long getCoalesceThreshold() {
+    return coalesceThreshold;
+  }
+
+  public long getCoalesceTargetSize() {
+    return coalesceTargetSize == null ? DEFAULT_COALESCE_TARGET_SIZE : coalesceTargetSize;
+  }
+
+  @Nullable
+  public String getEntryIncludeRegex() {
+    return Strings.isNullOrEmpty(entryIncludeRegex) ? null : entryIncludeRegex;
+  }
+
+  @Nullable
+  public String getEntryExcludeRegex() {
+    return Strings.isNullOrEmpty(entryExcludeRegex) ? null : entryExcludeRegex;
+  }
+
+  public OutputCodec getOutputCodec() {
+    return Strings.isNullOrEmpty(outputCodec) ? OutputCodec.NONE : OutputCodec.fromValue(outputCodec);
+  }
+
+  @Nullable
+  public Integer getPipelineQueueDepth() {
+    return pipelineQueueDepth;
+  }
+
+  @Nullable
+  public Integer getPipelineBufferCount() {
+    return pipelineBufferCount;
+  }
+
+  public int getMaxNestingDepth() {
+    return maxNestingDepth == null ? 0 : maxNestingDepth;
+  }
+
+  @Nullable
+  public Long getMaxFileExpandedBytes() {
+    return maxFileExpandedBytes;
+  }
+
+  @Nullable
+  public Long getMaxRunExpandedBytes() {
+    return maxRunExpandedBytes;
+  }
+
+  @Nullable
+  public Double getMaxCompressionRatio() {
+    return maxCompressionRatio;
+  }
+
+  @Nullable
+  public Long getMaxEntries() {
+    return maxEntries;
+  }
+
+  @Nullable
+  public Long getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  @Nullable
+  public Long getOutputPartSize() {
+    return outputPartSize;
+  }
+
+  public List<OutputDigest> getOutputDigests() {
+    return OutputDigest.parseList(outputDigests);
+  }
+
+  @Nullable
+  public Integer getMaxParallelism() {
+    return maxParallelism;
+  }
+
+  @Nullable
+  public Long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  @Nullable
+  public Long getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
   /**
    * Validates the config parameters required for unloading the data.
    */
@@ -147,8 +617,10 @@ public class DecompressActionConfig extends PluginConfig {
     if (!containsMacro(ARCHIVED_OR_COMPRESSED) && (Strings.isNullOrEmpty(archivedOrCompressed) || (
       !archivedOrCompressed.toLowerCase().equals("archived") &&
         !archivedOrCompressed.toLowerCase().equals("compressed") &&
-        !archivedOrCompressed.toLowerCase().equals("archived then compressed")))) {
-      collector.addFailure("You must specify if you are processing archive files, compressed files, or both.", null)
+        !archivedOrCompressed.toLowerCase().equals("archived then compressed") &&
+        !archivedOrCompressed.toLowerCase().equals(AUTO)))) {
+      collector.addFailure("You must specify if you are processing archive files, compressed files, both, " +
+                             "or if the format should be detected automatically.", null)
         .withConfigProperty(ARCHIVED_OR_COMPRESSED);
     }
 
@@ -156,6 +628,165 @@ public class DecompressActionConfig extends PluginConfig {
       collector.addFailure("Continue on error must be specified.", null)
         .withConfigProperty(CONTINUE_ON_ERROR);
     }
+
+    if (!containsMacro(PARALLELISM) && parallelism != null && parallelism < 1) {
+      collector.addFailure("Parallelism must be at least 1.", null)
+        .withConfigProperty(PARALLELISM);
+    }
+
+    if (!containsMacro(THREADS_PER_FILE) && threadsPerFile != null && threadsPerFile < 1) {
+      collector.addFailure("Threads per file must be at least 1.", null)
+        .withConfigProperty(THREADS_PER_FILE);
+    }
+
+    if (!containsMacro(CODEC_BACKEND) && !Strings.isNullOrEmpty(codecBackend) &&
+      CodecBackend.fromValue(codecBackend) == null) {
+      collector.addFailure("Codec backend must be one of 'commons-compress', 'hadoop-native' or 'auto'.", null)
+        .withConfigProperty(CODEC_BACKEND);
+    }
+
+    if (!containsMacro(READ_BUFFER_SIZE) && !isValidBufferSize(readBufferSize)) {
+      collector.addFailure("Read buffer size must be 'auto' or a positive number of bytes.", null)
+        .withConfigProperty(READ_BUFFER_SIZE);
+    }
+
+    if (!containsMacro(WRITE_BUFFER_SIZE) && !isValidBufferSize(writeBufferSize)) {
+      collector.addFailure("Write buffer size must be 'auto' or a positive number of bytes.", null)
+        .withConfigProperty(WRITE_BUFFER_SIZE);
+    }
+
+    if (!containsMacro(COALESCE_THRESHOLD) && coalesceThreshold != null && coalesceThreshold < 1) {
+      collector.addFailure("Coalesce threshold must be at least 1 byte.", null)
+        .withConfigProperty(COALESCE_THRESHOLD);
+    }
+
+    if (!containsMacro(COALESCE_TARGET_SIZE) && coalesceTargetSize != null && coalesceTargetSize < 1) {
+      collector.addFailure("Coalesce target size must be at least 1 byte.", null)
+        .withConfigProperty(COALESCE_TARGET_SIZE);
+    }
+
+    if (!containsMacro(ENTRY_INCLUDE_REGEX) && !isValidRegex(getEntryIncludeRegex())) {
+      collector.addFailure("The entry include pattern is not a valid regular expression.", null)
+        .withConfigProperty(ENTRY_INCLUDE_REGEX);
+    }
+
+    if (!containsMacro(ENTRY_EXCLUDE_REGEX) && !isValidRegex(getEntryExcludeRegex())) {
+      collector.addFailure("The entry exclude pattern is not a valid regular expression.", null)
+        .withConfigProperty(ENTRY_EXCLUDE_REGEX);
+    }
+
+    if (!containsMacro(OUTPUT_CODEC) && !Strings.isNullOrEmpty(outputCodec) &&
+      OutputCodec.fromValue(outputCodec) == null) {
+      collector.addFailure("Output codec must be one of 'none', 'bzip2', 'gzip' or 'deflate'.", null)
+        .withConfigProperty(OUTPUT_CODEC);
+    }
+
+    if (!containsMacro(PIPELINE_QUEUE_DEPTH) && pipelineQueueDepth != null && pipelineQueueDepth < 1) {
+      collector.addFailure("Pipeline queue depth must be at least 1.", null)
+        .withConfigProperty(PIPELINE_QUEUE_DEPTH);
+    }
+
+    if (!containsMacro(PIPELINE_BUFFER_COUNT) && pipelineBufferCount != null && pipelineBufferCount < 1) {
+      collector.addFailure("Pipeline buffer count must be at least 1.", null)
+        .withConfigProperty(PIPELINE_BUFFER_COUNT);
+    }
+
+    if (!containsMacro(MAX_NESTING_DEPTH) && maxNestingDepth != null && maxNestingDepth < 0) {
+      collector.addFailure("Max nesting depth must be at least 0.", null)
+        .withConfigProperty(MAX_NESTING_DEPTH);
+    }
+
+    if (!containsMacro(MAX_FILE_EXPANDED_BYTES) && maxFileExpandedBytes != null && maxFileExpandedBytes < 1) {
+      collector.addFailure("Max file expanded bytes must be at least 1.", null)
+        .withConfigProperty(MAX_FILE_EXPANDED_BYTES);
+    }
+
+    if (!containsMacro(MAX_RUN_EXPANDED_BYTES) && maxRunExpandedBytes != null && maxRunExpandedBytes < 1) {
+      collector.addFailure("Max run expanded bytes must be at least 1.", null)
+        .withConfigProperty(MAX_RUN_EXPANDED_BYTES);
+    }
+
+    if (!containsMacro(MAX_COMPRESSION_RATIO) && maxCompressionRatio != null && !(maxCompressionRatio >= 1)) {
+      collector.addFailure("Max compression ratio must be at least 1.", null)
+        .withConfigProperty(MAX_COMPRESSION_RATIO);
+    }
+
+    if (!containsMacro(MAX_ENTRIES) && maxEntries != null && maxEntries < 1) {
+      collector.addFailure("Max entries must be at least 1.", null)
+        .withConfigProperty(MAX_ENTRIES);
+    }
+
+    if (!containsMacro(MAX_ENTRY_SIZE) && maxEntrySize != null && maxEntrySize < 1) {
+      collector.addFailure("Max entry size must be at least 1.", null)
+        .withConfigProperty(MAX_ENTRY_SIZE);
+    }
+
+    if (!containsMacro(OUTPUT_PART_SIZE) && outputPartSize != null && outputPartSize < 1) {
+      collector.addFailure("Output part size must be at least 1.", null)
+        .withConfigProperty(OUTPUT_PART_SIZE);
+    }
+
+    if (!containsMacro(OUTPUT_DIGESTS)) {
+      try {
+        OutputDigest.parseList(outputDigests);
+      } catch (IllegalArgumentException e) {
+        collector.addFailure("Output digests must be a comma separated list of 'crc32c', 'md5' and 'sha-256'.",
+                             null)
+          .withConfigProperty(OUTPUT_DIGESTS);
+      }
+    }
+
+    if (!containsMacro(MAX_PARALLELISM) && !containsMacro(PARALLELISM) && maxParallelism != null &&
+      maxParallelism < getParallelism()) {
+      collector.addFailure("Max parallelism must be at least the parallelism.", null)
+        .withConfigProperty(MAX_PARALLELISM);
+    }
+
+    if (!containsMacro(MEMORY_BUDGET) && memoryBudget != null && memoryBudget < 1) {
+      collector.addFailure("Memory budget must be at least 1.", null)
+        .withConfigProperty(MEMORY_BUDGET);
+    }
+
+    if (!containsMacro(CHECKPOINT_INTERVAL) && checkpointInterval != null) {
+      if (checkpointInterval < 1) {
+        collector.addFailure("Checkpoint interval must be at least 1.", null)
+          .withConfigProperty(CHECKPOINT_INTERVAL);
+      }
+      // the outputs of a failed attempt would be deleted with its staging directory, coalesced parts would be
+      // numbered from the first part again and the digest manifest would only list the outputs of the retry
+      if ((!containsMacro(STAGED_WRITES) && getStagedWrites()) ||
+        (!containsMacro(COALESCE_THRESHOLD) && coalesceThreshold != null) ||
+        (!containsMacro(OUTPUT_DIGESTS) && !Strings.isNullOrEmpty(outputDigests))) {
+        collector.addFailure("Checkpoints can not be combined with staged writes, coalescing or output digests.",
+                             null)
+          .withConfigProperty(CHECKPOINT_INTERVAL);
+      }
+    }
+  }
+
+  @Nullable
+  private static Integer parseBufferSize(@Nullable String bufferSize) {
+    if (Strings.isNullOrEmpty(bufferSize) || bufferSize.trim().equalsIgnoreCase(AUTO)) {
+      return null;
+    }
+    return Integer.parseInt(bufferSize.trim());
+  }
+
+  private static boolean isValidBufferSize(@Nullable String bufferSize) {
+    try {
+      Integer size = parseBufferSize(bufferSize);
+      return size == null || size > 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static boolean isValidRegex(@Nullable String regex) {
+    try {
+      return regex == null || Pattern.compile(regex) != null;
+    } catch (PatternSyntaxException e) {
+      return false;
+    }
   }
 
 
@@ -165,6 +796,34 @@ public class DecompressActionConfig extends PluginConfig {
     private String fileRegex;
     private String archivedOrCompressed;
     private Boolean continueOnError;
+    private Integer parallelism;
+    private Integer threadsPerFile;
+    private String codecBackend;
+    private Boolean decompressMembersInParallel;
+    private String manifestPath;
+    private String readBufferSize;
+    private String writeBufferSize;
+    private Boolean streamingListing;
+    private Boolean recursive;
+    private Boolean stagedWrites;
+    private Long coalesceThreshold;
+    private Long coalesceTargetSize;
+    private String entryIncludeRegex;
+    private String entryExcludeRegex;
+    private String outputCodec;
+    private Integer pipelineQueueDepth;
+    private Integer pipelineBufferCount;
+    private Integer maxNestingDepth;
+    private Long maxFileExpandedBytes;
+    private Long maxRunExpandedBytes;
+    private Double maxCompressionRatio;
+    private Long maxEntries;
+    private Long maxEntrySize;
+    private Long outputPartSize;
+    private String outputDigests;
+    private Integer maxParallelism;
+    private Long memoryBudget;
+    private Long checkpointInterval;
 
     private Builder() {
     }
@@ -194,6 +853,146 @@ public class DecompressActionConfig extends PluginConfig {
       return this;
     }
 
+    public Builder setParallelism(Integer parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder setThreadsPerFile(Integer threadsPerFile) {
+      this.threadsPerFile = threadsPerFile;
+      return this;
+    }
+
+    public Builder setCodecBackend(String codecBackend) {
+      this.codecBackend = codecBackend;
+      return this;
+    }
+
+    public Builder setDecompressMembersInParallel(Boolean decompressMembersInParallel) {
+      this.decompressMembersInParallel = decompressMembersInParallel;
+      return this;
+    }
+
+    public Builder setManifestPath(String manifestPath) {
+      this.manifestPath = manifestPath;
+      return this;
+    }
+
+    public Builder setReadBufferSize(String readBufferSize) {
+      this.readBufferSize = readBufferSize;
+      return this;
+    }
+
+    public Builder setWriteBufferSize(String writeBufferSize) {
+      this.writeBufferSize = writeBufferSize;
+      return this;
+    }
+
+    public Builder setStreamingListing(Boolean streamingListing) {
+      this.streamingListing = streamingListing;
+      return this;
+    }
+
+    public Builder setRecursive(Boolean recursive) {
+      this.recursive = recursive;
+      return this;
+    }
+
+    public Builder setStagedWrites(Boolean stagedWrites) {
+      this.stagedWrites = stagedWrites;
+      return this;
+    }
+
+    public Builder setCoalesceThreshold(Long coalesceThreshold) {
+      this.coalesceThreshold = coalesceThreshold;
+      return this;
+    }
+
+    public Builder setCoalesceTargetSize(Long coalesceTargetSize) {
+      this.coalesceTargetSize = coalesceTargetSize;
+      return this;
+    }
+
+    public Builder setEntryIncludeRegex(String entryIncludeRegex) {
+      this.entryIncludeRegex = entryIncludeRegex;
+      return this;
+    }
+
+    public Builder setEntryExcludeRegex(String entryExcludeRegex) {
+      this.entryExcludeRegex = entryExcludeRegex;
+      return this;
+    }
+
+    public Builder setOutputCodec(String outputCodec) {
+      this.outputCodec = outputCodec;
+      return this;
+    }
+
+    public Builder setPipelineQueueDepth(Integer pipelineQueueDepth) {
+      this.pipelineQueueDepth = pipelineQueueDepth;
+      return this;
+    }
+
+    public Builder setPipelineBufferCount(Integer pipelineBufferCount) {
+      this.pipelineBufferCount = pipelineBufferCount;
+      return this;
+    }
+
+    public Builder setMaxNestingDepth(Integer maxNestingDepth) {
+      this.maxNestingDepth = maxNestingDepth;
+      return this;
+    }
+
+    public Builder setMaxFileExpandedBytes(Long maxFileExpandedBytes) {
+      this.maxFileExpandedBytes = maxFileExpandedBytes;
+      return this;
+    }
+
+    public Builder setMaxRunExpandedBytes(Long maxRunExpandedBytes) {
+      this.maxRunExpandedBytes = maxRunExpandedBytes;
+      return this;
+    }
+
+    public Builder setMaxCompressionRatio(Double maxCompressionRatio) {
+      this.maxCompressionRatio = maxCompressionRatio;
+      return this;
+    }
+
+    public Builder setMaxEntries(Long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    public Builder setMaxEntrySize(Long maxEntrySize) {
+      this.maxEntrySize = maxEntrySize;
+      return this;
+    }
+
+    public Builder setOutputPartSize(Long outputPartSize) {
+      this.outputPartSize = outputPartSize;
+      return this;
+    }
+
+    public Builder setOutputDigests(String outputDigests) {
+      this.outputDigests = outputDigests;
+      return this;
+    }
+
+    public Builder setMaxParallelism(Integer maxParallelism) {
+      this.maxParallelism = maxParallelism;
+      return this;
+    }
+
+    public Builder setMemoryBudget(Long memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
+    public Builder setCheckpointInterval(Long checkpointInterval) {
+      this.checkpointInterval = checkpointInterval;
+      return this;
+    }
+
     public DecompressActionConfig build() {
       return new DecompressActionConfig(this);
     }
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.collect.Lists;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Spark compute stage that expands the same files as {@link DecompressAction}, spread over the executors of the
+ * cluster instead of running in a single process. The files are listed once, then assigned to partitions so that
+ * every partition gets about the same number of bytes, and one record describing the result is emitted per file.
+ *
+ * The files are expanded by a single Spark job run while the stage is transformed, and the records are collected to
+ * the driver. The records emitted are built from that collected result, so evaluating the output more than once, by
+ * several sinks or after an executor is lost, never expands the files again.
+ *
+ * Input records are ignored; they only connect the stage to the pipeline.
+ */
+@Plugin(type = SparkCompute.PLUGIN_TYPE)
+@Name("Decompress")
+@Description("Expands compressed or archived files on the executors of the cluster and emits one record per file")
+public class DecompressCompute extends SparkCompute<StructuredRecord, StructuredRecord> {
+  static final String STATUS_EXPANDED = "expanded";
+  static final String STATUS_FAILED = "failed";
+  static final Schema SCHEMA = Schema.recordOf(
+    "decompressResult",
+    Schema.Field.of("source", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("destination", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("status", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("bytesRead", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("bytesWritten", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("entries", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("durationMillis", Schema.of(Schema.Type.LONG)));
+
+  private static final Logger LOG = LoggerFactory.getLogger(DecompressCompute.class);
+
+  private final DecompressComputeConfig config;
+
+  public DecompressCompute(DecompressComputeConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
+    FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+    config.validate(failureCollector);
+    failureCollector.getOrThrowException();
+    pipelineConfigurer.getStageConfigurer().setOutputSchema(SCHEMA);
+  }
+
+  @Override
+  public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context,
+                                             JavaRDD<StructuredRecord> input) throws Exception {
+    FailureCollector failureCollector = context.getFailureCollector();
+    config.validate(failureCollector);
+    failureCollector.getOrThrowException();
+
+    Path source = new Path(config.getSourceFilePath());
+    Path dest = new Path(config.getDestFilePath());
+    FileSystem fileSystem = source.getFileSystem(new Configuration());
+    FileExpander expander = new FileExpander(config, fileSystem.getConf());
+    // every file has to be known to balance the partitions, so the listing is collected even when it streams
+    List<FileStatus> files = Lists.newArrayList(expander.listFiles(source, dest, fileSystem));
+    StagedCommitter committer = null;
+    if (config.getStagedWrites()) {
+      committer = new StagedCommitter(fileSystem, dest);
+      committer.setup();
+    }
+
+    JavaSparkContext sparkContext = context.getSparkContext();
+    int partitions = config.getPartitions() == null ? sparkContext.defaultParallelism() : config.getPartitions();
+    List<List<String>> bins = balance(files, partitions, file -> expander.getDestinationKey(file.getPath(), dest));
+    LOG.info("Expanding {} files from {} in {} partitions", files.size(), source, bins.size());
+    if (bins.isEmpty()) {
+      if (committer != null) {
+        committer.finish(true);
+      }
+      return sparkContext.emptyRDD();
+    }
+    // with as many slices as elements, every bin becomes a partition of its own
+    List<StructuredRecord> results = sparkContext.parallelize(bins, bins.size())
+      .flatMap(new ExpandFunction(config))
+      .collect();
+    if (committer != null) {
+      // every executor committed its files by now, so the marker is written once no file failed
+      committer.finish(results.stream().noneMatch(result -> STATUS_FAILED.equals(result.get("status"))));
+    }
+    return sparkContext.parallelize(results);
+  }
+
+  /**
+   * Assigns the files to at most the given number of bins holding about the same number of bytes. Files are taken
+   * from the largest to the smallest and each goes into the bin with the fewest bytes so far. Files with the same
+   * destination go into the same bin, so that they are never expanded concurrently.
+   *
+   * @return the paths of the files in each bin, leaving out empty bins
+   */
+  static List<List<String>> balance(List<FileStatus> files, int partitions, Function<FileStatus, Path> destination) {
+    Map<Path, Bin> groups = new LinkedHashMap<>();
+    for (FileStatus file : files) {
+      groups.computeIfAbsent(destination.apply(file), key -> new Bin()).add(file);
+    }
+    List<Bin> sortedGroups = new ArrayList<>(groups.values());
+    sortedGroups.sort(Comparator.comparingLong((Bin group) -> group.bytes).reversed());
+
+    PriorityQueue<Bin> bins = new PriorityQueue<>(Comparator.comparingLong((Bin bin) -> bin.bytes));
+    for (int i = 0; i < Math.min(partitions, sortedGroups.size()); i++) {
+      bins.add(new Bin());
+    }
+    for (Bin group : sortedGroups) {
+      Bin bin = bins.poll();
+      bin.addAll(group);
+      bins.add(bin);
+    }
+    List<List<String>> paths = new ArrayList<>();
+    for (Bin bin : bins) {
+      paths.add(bin.paths);
+    }
+    return paths;
+  }
+
+  /**
+   * Files assigned to the same partition, with their total size.
+   */
+  private static final class Bin {
+    private final ArrayList<String> paths = new ArrayList<>();
+    private long bytes;
+
+    private void add(FileStatus file) {
+      paths.add(file.getPath().toString());
+      bytes += file.getLen();
+    }
+
+    private void addAll(Bin other) {
+      paths.addAll(other.paths);
+      bytes += other.bytes;
+    }
+  }
+
+  /**
+   * Expands the files of a partition one after the other on an executor.
+   */
+  private static final class ExpandFunction implements FlatMapFunction<List<String>, StructuredRecord> {
+    private final DecompressComputeConfig config;
+
+    private ExpandFunction(DecompressComputeConfig config) {
+      this.config = config;
+    }
+
+    @Override
+    public Iterator<StructuredRecord> call(List<String> paths) throws Exception {
+      Path dest = new Path(config.getDestFilePath());
+      FileSystem fileSystem = new Path(config.getSourceFilePath()).getFileSystem(new Configuration());
+      FileExpander expander = new FileExpander(config, fileSystem.getConf());
+      StagedCommitter committer = config.getStagedWrites() ? new StagedCommitter(fileSystem, dest) : null;
+      List<StructuredRecord> results = new ArrayList<>();
+      for (String path : paths) {
+        Path source = new Path(path);
+        ExpansionTracker tracker = new ExpansionTracker(fileSystem.getFileStatus(source), expander.getLimits());
+        long start = System.nanoTime();
+        boolean expanded = expander.expand(source, dest, fileSystem, tracker, committer);
+        results.add(StructuredRecord.builder(SCHEMA)
+                      .set("source", path)
+                      .set("destination", expander.getDestinationKey(source, dest).toString())
+                      .set("status", expanded ? STATUS_EXPANDED : STATUS_FAILED)
+                      .set("bytesRead", tracker.getBytesRead())
+                      .set("bytesWritten", tracker.getBytesWritten())
+                      .set("entries", tracker.getEntries())
+                      .set("durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                      .build());
+      }
+      if (committer != null) {
+        // the marker is written by the driver, since the executors only commit the files of their own partition
+        committer.finish(false);
+      }
+      return results.iterator();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.etl.api.FailureCollector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Config class for {@link DecompressCompute}. It takes the same properties as {@link DecompressActionConfig}, plus
+ * the number of partitions the files are spread over. The properties that control how files are run within a single
+ * process, and the manifest of processed files, which the executors could not update together, are rejected.
+ */
+public class DecompressComputeConfig extends DecompressActionConfig {
+  public static final String PARTITIONS = "partitions";
+
+  @Name(PARTITIONS)
+  @Macro
+  @Nullable
+  @Description("The number of Spark partitions the files are spread over, balanced by file size. Defaults to the " +
+    "default parallelism of the Spark context.")
+  private final Integer partitions;
+
+  public DecompressComputeConfig(String sourceFilePath, String destFilePath, @Nullable String fileRegex,
+                                 String archivedOrCompressed, @Nullable Boolean continueOnError,
+                                 @Nullable Integer partitions) {
+    super(sourceFilePath, destFilePath, fileRegex, archivedOrCompressed, continueOnError);
+    this.partitions = partitions;
+  }
+
+  DecompressComputeConfig(Builder builder, @Nullable Integer partitions) {
+    super(builder);
+    this.partitions = partitions;
+  }
+
+  @Nullable
+  public Integer getPartitions() {
+    return partitions;
+  }
+
+  @Override
+  public void validate(FailureCollector collector) {
+    super.validate(collector);
+    if (!containsMacro(PARTITIONS) && partitions != null && partitions < 1) {
+      collector.addFailure("Partitions must be at least 1.", null)
+        .withConfigProperty(PARTITIONS);
+    }
+    rejectProperty(collector, PARALLELISM, isParallelismSet(), "Parallelism");
+    rejectProperty(collector, MAX_PARALLELISM, getMaxParallelism() != null, "Max parallelism");
+    rejectProperty(collector, MEMORY_BUDGET, getMemoryBudget() != null, "Memory budget");
+    rejectProperty(collector, MANIFEST_PATH, getManifestPath() != null, "Manifest path");
+  }
+
+  private void rejectProperty(FailureCollector collector, String name, boolean set, String label) {
+    if (set || containsMacro(name)) {
+      collector.addFailure(String.format("%s is not supported by the Spark compute stage.", label), null)
+        .withConfigProperty(name);
+    }
+  }
+}
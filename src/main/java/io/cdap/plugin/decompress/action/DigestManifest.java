@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.base.Joiner;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Manifest of the digests of the files expanded from a single source file, so that they can be verified without
+ * reading them again.
+ *
+ * The manifest is a text file named {@code _<source file name>.digests} in the directory the source file is expanded
+ * into. It starts with a header line naming the columns, prefixed with {@code #}, followed by one line per expanded
+ * file holding its digests in hex and its path relative to the manifest, separated by tabs and sorted by path. Like
+ * the other files whose names start with an underscore, Hadoop input formats do not read it as data.
+ */
+final class DigestManifest {
+  static final String SUFFIX = ".digests";
+
+  private static final Joiner TAB = Joiner.on('\t');
+
+  private DigestManifest() {
+  }
+
+  /**
+   * Returns the path of the manifest of the given source file expanded into the destination.
+   */
+  static Path getPath(Path source, Path dest, FileSystem fileSystem) throws IOException {
+    Path base = fileSystem.isDirectory(dest) ? dest : dest.getParent();
+    return new Path(base, "_" + source.getName() + SUFFIX);
+  }
+
+  /**
+   * Writes the manifest of the outputs expanded from the source file into the destination.
+   *
+   * @param digests the digests computed for every output, in the order of the digest values of the outputs
+   * @param outputs the digest values of each output, by output path
+   */
+  static void write(Path source, Path dest, FileSystem fileSystem, List<OutputDigest> digests,
+                    Map<Path, List<String>> outputs) throws IOException {
+    Path path = getPath(source, dest, fileSystem);
+    String prefix = path.getParent().toUri().getPath() + "/";
+    Map<String, List<String>> lines = new TreeMap<>();
+    for (Map.Entry<Path, List<String>> output : outputs.entrySet()) {
+      String outputPath = output.getKey().toUri().getPath();
+      lines.put(outputPath.startsWith(prefix) ? outputPath.substring(prefix.length()) : outputPath,
+                output.getValue());
+    }
+    try (Writer writer = new BufferedWriter(
+      new OutputStreamWriter(fileSystem.create(path, true), StandardCharsets.UTF_8))) {
+      StringBuilder header = new StringBuilder("#");
+      for (OutputDigest digest : digests) {
+        header.append(digest.getValue()).append('\t');
+      }
+      writer.write(header.append("path\n").toString());
+      for (Map.Entry<String, List<String>> line : lines.entrySet()) {
+        writer.write(TAB.join(line.getValue()) + "\t" + line.getKey() + "\n");
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Appends the small entries of an archive to a few large part files instead of creating a file per entry, which
+ * saves a round trip to the file system per entry and spares downstream readers from many tiny files.
+ *
+ * Each part file {@code part-NNNNN} has a sidecar index {@code _part-NNNNN.index} with one line per entry, holding
+ * the offset of the entry in the part file, its length and its name, separated by tabs. Backslashes, tabs and line
+ * breaks in names are escaped as {@code \\}, {@code \t}, {@code \n} and {@code \r}. The index name starts with an
+ * underscore so that Hadoop input formats reading the folder skip it. A part file is closed once it reaches the
+ * target size and the next entry goes to a new one.
+ *
+ * Entries written to files of their own in the folder must not take the name of a part file or index, which is
+ * checked with {@link #checkPath(Path)}.
+ */
+final class EntryCoalescer implements Closeable {
+  static final String PART_PREFIX = "part-";
+  static final String INDEX_PREFIX = "_";
+  static final String INDEX_SUFFIX = ".index";
+
+  private static final String PART_NUMBER = Pattern.quote(PART_PREFIX) + "\\d{5,}";
+  private static final Pattern PART_NAME = Pattern.compile(
+    PART_NUMBER + "|" + Pattern.quote(INDEX_PREFIX) + PART_NUMBER + Pattern.quote(INDEX_SUFFIX));
+
+  // entries from this size on are copied straight to the part file rather than read into memory first
+  private static final long BUFFERED_ENTRY_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Creates the outputs the part files and indexes are written to.
+   */
+  interface Outputs {
+    OutputStream create(Path path) throws IOException;
+  }
+
+  private final Path folder;
+  private final long threshold;
+  private final long targetSize;
+  private final Outputs outputs;
+  private final IOBuffers ioBuffers;
+  private final FileSystem fileSystem;
+  private int parts;
+  private OutputStream part;
+  private OutputStream index;
+  private long partLength;
+
+  EntryCoalescer(Path folder, long threshold, long targetSize, Outputs outputs, IOBuffers ioBuffers,
+                 FileSystem fileSystem) {
+    this.folder = folder;
+    this.threshold = threshold;
+    this.targetSize = targetSize;
+    this.outputs = outputs;
+    this.ioBuffers = ioBuffers;
+    this.fileSystem = fileSystem;
+  }
+
+  /**
+   * Returns whether the entry is a file whose size is known and below the threshold.
+   */
+  boolean accepts(ArchiveEntry entry) {
+    return !entry.isDirectory() && entry.getSize() >= 0 && entry.getSize() < threshold;
+  }
+
+  /**
+   * Appends the data of an entry to the current part file, starting a new part file first if the entry would take
+   * the current one over the target size. Entries of archives extracted concurrently are appended one at a time, but
+   * entries smaller than {@link #BUFFERED_ENTRY_SIZE} are read, and inflated, before taking a turn, so that only
+   * their writes are serialized.
+   */
+  void append(ArchiveEntry entry, InputStream input) throws IOException {
+    if (entry.getSize() >= BUFFERED_ENTRY_SIZE) {
+      synchronized (this) {
+        startPart(entry.getSize());
+        appendToPart(entry, ioBuffers.copy(input, part, fileSystem));
+      }
+      return;
+    }
+    byte[] data = new byte[(int) entry.getSize()];
+    int length = IOUtils.readFully(input, data);
+    // reading past the end also lets the stream check the entry once it is complete
+    if (length < data.length || input.read() != -1) {
+      throw new IOException(String.format("Archive entry %s does not hold the %d bytes recorded in its header",
+                                          entry.getName(), entry.getSize()));
+    }
+    synchronized (this) {
+      startPart(data.length);
+      part.write(data);
+      appendToPart(entry, data.length);
+    }
+  }
+
+  /**
+   * Returns whether the file name is the name of a numbered part file or part index, written by a coalescer or by
+   * a decompressed file split into parts.
+   */
+  static boolean isPart(String name) {
+    return PART_NAME.matcher(name).matches();
+  }
+
+  /**
+   * Checks that a file or directory about to be written for an entry, rather than appended to a part file, does not
+   * take the name of a part file or index in the folder.
+   */
+  void checkPath(Path path) throws IOException {
+    for (Path child = path; child.getParent() != null; child = child.getParent()) {
+      if (child.getParent().equals(folder)) {
+        if (isPart(child.getName())) {
+          throw new IOException(String.format("%s would overwrite a part file of the entries coalesced in %s. " +
+                                                "Exclude the entry or do not coalesce entries.", path, folder));
+        }
+        return;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closePart();
+  }
+
+  private void startPart(long size) throws IOException {
+    if (part != null && partLength > 0 && partLength + size > targetSize) {
+      closePart();
+    }
+    if (part == null) {
+      String name = String.format("%s%05d", PART_PREFIX, parts++);
+      part = outputs.create(new Path(folder, name));
+      index = outputs.create(new Path(folder, INDEX_PREFIX + name + INDEX_SUFFIX));
+    }
+  }
+
+  private void appendToPart(ArchiveEntry entry, long length) throws IOException {
+    index.write(String.format("%d\t%d\t%s\n", partLength, length, escape(entry.getName()))
+                  .getBytes(StandardCharsets.UTF_8));
+    partLength += length;
+  }
+
+  /**
+   * Escapes the characters of an entry name that would break the line of the index it is written in.
+   */
+  static String escape(String name) {
+    StringBuilder escaped = new StringBuilder(name.length());
+    for (char c : name.toCharArray()) {
+      switch (c) {
+        case '\\':
+          escaped.append("\\\\");
+          break;
+        case '\t':
+          escaped.append("\\t");
+          break;
+        case '\n':
+          escaped.append("\\n");
+          break;
+        case '\r':
+          escaped.append("\\r");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private void closePart() throws IOException {
+    if (part == null) {
+      return;
+    }
+    try (OutputStream closingIndex = index) {
+      part.close();
+    } finally {
+      part = null;
+      index = null;
+      partLength = 0;
+    }
+  }
+}
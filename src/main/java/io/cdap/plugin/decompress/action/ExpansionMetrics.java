@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emits the metrics of a run as each file completes, and sums them up for a summary logged at the end of the run.
+ */
+final class ExpansionMetrics {
+  static final String BYTES_IN = "bytes.in";
+  static final String BYTES_OUT = "bytes.out";
+  static final String FILES_EXPANDED = "files.expanded";
+  static final String FILES_FAILED = "files.failed";
+  static final String FILES_SKIPPED = "files.skipped";
+  static final String ENTRIES_EXTRACTED = "entries.extracted";
+  static final String ENTRIES_SKIPPED = "entries.skipped";
+  static final String ENTRIES_TRANSFERRED = "entries.transferred";
+  static final String READ_TIME = "time.read.ms";
+  static final String INFLATE_TIME = "time.inflate.ms";
+  static final String WRITE_TIME = "time.write.ms";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExpansionMetrics.class);
+  private static final double MEGABYTE = 1024 * 1024;
+
+  private final StageMetrics metrics;
+  private final long startNanos = System.nanoTime();
+  private long filesExpanded;
+  private long filesFailed;
+  private long filesSkipped;
+  private long entries;
+  private long bytesIn;
+  private long bytesOut;
+  private long readNanos;
+  private long inflateNanos;
+  private long writeNanos;
+
+  ExpansionMetrics(StageMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Records a file that was expanded, or that failed to expand if the failure was ignored.
+   */
+  synchronized void record(ExpansionTracker tracker, boolean expanded) {
+    if (expanded) {
+      filesExpanded++;
+      metrics.count(FILES_EXPANDED, 1);
+    } else {
+      filesFailed++;
+      metrics.count(FILES_FAILED, 1);
+    }
+    entries += count(ENTRIES_EXTRACTED, tracker.getEntries());
+    count(ENTRIES_SKIPPED, tracker.getSkippedEntries());
+    count(ENTRIES_TRANSFERRED, tracker.getTransferredEntries());
+    bytesIn += count(BYTES_IN, tracker.getBytesRead());
+    bytesOut += count(BYTES_OUT, tracker.getBytesWritten());
+    // times are emitted in milliseconds, so the part of a millisecond left over is carried on to the next file
+    readNanos = countNanos(READ_TIME, readNanos, tracker.getReadNanos());
+    inflateNanos = countNanos(INFLATE_TIME, inflateNanos, tracker.getInflateNanos());
+    writeNanos = countNanos(WRITE_TIME, writeNanos, tracker.getWriteNanos());
+  }
+
+  /**
+   * Records a file that was skipped because it was already expanded.
+   */
+  synchronized void recordSkipped() {
+    filesSkipped++;
+    metrics.count(FILES_SKIPPED, 1);
+  }
+
+  synchronized long getFilesFailed() {
+    return filesFailed;
+  }
+
+  synchronized long getFilesSkipped() {
+    return filesSkipped;
+  }
+
+  /**
+   * Logs a summary of the run so far.
+   */
+  void logSummary() {
+    LOG.info(getSummary());
+  }
+
+  /**
+   * Returns a summary of the run so far.
+   */
+  synchronized String getSummary() {
+    double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    return String.format(
+      "Expanded %d files into %d entries, %.1f MB read and %.1f MB written (ratio %.2f) in %.1f s at %.1f MB/s. " +
+        "Time spent reading %.1f s, inflating %.1f s and writing %.1f s. %d files failed and %d were skipped.",
+      filesExpanded, entries, bytesIn / MEGABYTE, bytesOut / MEGABYTE, bytesIn == 0 ? 0 : bytesOut / (double) bytesIn,
+      seconds, seconds == 0 ? 0 : bytesOut / MEGABYTE / seconds, toSeconds(readNanos), toSeconds(inflateNanos),
+      toSeconds(writeNanos), filesFailed, filesSkipped);
+  }
+
+  /**
+   * Adds the value to a counter, which only takes int increments.
+   */
+  private long count(String name, long value) {
+    for (long remaining = value; remaining > 0; remaining -= Integer.MAX_VALUE) {
+      metrics.count(name, (int) Math.min(remaining, Integer.MAX_VALUE));
+    }
+    return value;
+  }
+
+  private long countNanos(String name, long total, long nanos) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(total + nanos) - TimeUnit.NANOSECONDS.toMillis(total);
+    count(name, millis);
+    return total + nanos;
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the outputs written while expanding a single source file, along with the bytes read from the source and the
+ * time spent reading, inflating and writing. Outputs may be written from several threads.
+ *
+ * Reading time is the time spent in reads of the source file. Inflating time is the time spent pulling expanded data
+ * out of the decompressing and archive streams, minus the reading time it includes. Writing time is the time spent
+ * creating, writing and closing the outputs. Times of concurrent threads add up.
+ *
+ * Expanded data is checked against the {@link ExpansionLimits} of the run as it is read.
+ */
+final class ExpansionTracker {
+  private final FileStatus source;
+  private final ExpansionLimits limits;
+  private final AtomicLong outputs = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong outputHash = new AtomicLong();
+  private final AtomicLong entries = new AtomicLong();
+  private final AtomicLong skippedEntries = new AtomicLong();
+  private final AtomicLong transferredEntries = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong bytesExpanded = new AtomicLong();
+  private final AtomicLong readNanos = new AtomicLong();
+  private final AtomicLong decodeNanos = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final Map<Path, List<String>> digests = new ConcurrentHashMap<>();
+
+  ExpansionTracker(FileStatus source, ExpansionLimits limits) {
+    this.source = source;
+    this.limits = limits;
+  }
+
+  /**
+   * Returns the status of the source file being expanded.
+   */
+  FileStatus getSource() {
+    return source;
+  }
+
+  /**
+   * Wraps the stream an output file is written through, so that the output is accounted for once it is closed.
+   */
+  TrackedOutputStream track(Path path, OutputStream out) {
+    return new TrackedOutputStream(path, out, null);
+  }
+
+  /**
+   * Wraps the stream an output file is written through, computing the digests of the data written with the given
+   * digester. The digests are recorded along with the output once it is closed.
+   */
+  TrackedOutputStream track(Path path, OutputStream out, @Nullable OutputDigester digester) {
+    return new TrackedOutputStream(path, out, digester);
+  }
+
+  /**
+   * Wraps a stream over the source file, so that reads from it are accounted as reading.
+   */
+  InputStream trackSource(InputStream input) {
+    return new TimedInputStream(input, readNanos, bytesRead);
+  }
+
+  /**
+   * Wraps a stream of expanded data, so that reads from it are accounted as inflating. Reads that exceed a limit on
+   * the expanded bytes throw a {@link ExpansionLimits.LimitExceededException}; each stream is one entry, or the
+   * contents of a compressed file.
+   */
+  InputStream trackExpanded(InputStream input) {
+    return trackExpanded(input, new AtomicLong());
+  }
+
+  /**
+   * Wraps one of several streams of expanded data that make up a single entry or compressed file together, like
+   * the segments of a file decoded concurrently, so that the limit on the size of an entry applies to their total.
+   *
+   * @param entryBytes the bytes expanded by the streams of the entry so far, shared by all of them
+   */
+  InputStream trackExpanded(InputStream input, AtomicLong entryBytes) {
+    InputStream timed = new TimedInputStream(input, decodeNanos, null);
+    return limits.limitsBytes() ? new LimitedInputStream(timed, entryBytes) : timed;
+  }
+
+  /**
+   * Returns a mark of the bytes read and expanded so far, taken before an attempt that may be abandoned.
+   */
+  Mark mark() {
+    return new Mark(bytesRead.get(), bytesExpanded.get());
+  }
+
+  /**
+   * Takes the bytes read and expanded since the mark out of the tracker and the limits of the run, when the attempt
+   * that started at the mark is abandoned and its data is expanded again. The outputs of the attempt are discarded
+   * through {@link TrackedOutputStream#discard()}.
+   */
+  void reset(Mark mark) {
+    bytesRead.set(mark.bytesRead);
+    limits.releaseExpanded(bytesExpanded.getAndSet(mark.bytesExpanded) - mark.bytesExpanded);
+  }
+
+  /**
+   * Records a read of the source file made without going through {@link #trackSource(InputStream)}.
+   */
+  void recordRead(long bytes, long nanos) {
+    bytesRead.addAndGet(bytes);
+    readNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Records time spent expanding data outside of reads from a {@link #trackExpanded(InputStream) tracked stream},
+   * such as reading archive entry headers.
+   */
+  void recordInflate(long nanos) {
+    decodeNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Records time spent writing outside of a {@link TrackedOutputStream}, such as creating an output.
+   */
+  void recordWrite(long nanos) {
+    writeNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Checks an entry of the given length against the limits before it is copied without going through a
+   * {@link #trackExpanded(InputStream) tracked stream}.
+   */
+  void checkTransfer(long length) throws IOException {
+    limits.checkEntrySize(source.getPath(), length);
+    recordExpanded(length);
+  }
+
+  /**
+   * Records an output copied without going through a {@link TrackedOutputStream}. Its contents are never seen, so
+   * only its name and length go into the fingerprint.
+   */
+  void recordTransfer(Path path, long length, long nanos) {
+    writeNanos.addAndGet(nanos);
+    transferredEntries.incrementAndGet();
+    outputs.incrementAndGet();
+    bytesWritten.addAndGet(length);
+    outputHash.addAndGet(mix(path.toString().hashCode() * 31L, length));
+  }
+
+  /**
+   * Records that an archive entry was extracted, failing if the archive has more entries than the limit.
+   */
+  void recordEntry() throws IOException {
+    limits.checkEntries(source.getPath(), entries.incrementAndGet());
+  }
+
+  /**
+   * Records that an archive entry was skipped because it was not selected.
+   */
+  void recordSkippedEntry() {
+    skippedEntries.incrementAndGet();
+  }
+
+  long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  long getEntries() {
+    return entries.get();
+  }
+
+  long getSkippedEntries() {
+    return skippedEntries.get();
+  }
+
+  long getTransferredEntries() {
+    return transferredEntries.get();
+  }
+
+  long getReadNanos() {
+    return readNanos.get();
+  }
+
+  long getInflateNanos() {
+    return Math.max(0, decodeNanos.get() - readNanos.get());
+  }
+
+  long getWriteNanos() {
+    return writeNanos.get();
+  }
+
+  /**
+   * Returns the digests of the outputs written so far through a digester, by output path.
+   */
+  Map<Path, List<String>> getDigests() {
+    return digests;
+  }
+
+  /**
+   * Returns a fingerprint of the outputs written so far, made of their count, total size and a hash of their
+   * names and contents.
+   */
+  String getFingerprint() {
+    return String.format("%d:%d:%016x", outputs.get(), bytesWritten.get(), outputHash.get());
+  }
+
+  private void recordExpanded(long bytes) throws IOException {
+    limits.checkExpanded(source.getPath(), bytesExpanded.addAndGet(bytes), bytesRead.get(), bytes);
+  }
+
+  private static long mix(long value, long length) {
+    long hash = value ^ (length * 0x9e3779b97f4a7c15L);
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /**
+   * Output stream that records the output in the tracker when it is closed.
+   */
+  final class TrackedOutputStream extends FilterOutputStream {
+    private final Path path;
+    private final CRC32 crc = new CRC32();
+    private final OutputDigester digester;
+    private long length;
+    private boolean discarded;
+    private boolean recorded;
+
+    private TrackedOutputStream(Path path, OutputStream out, @Nullable OutputDigester digester) {
+      super(out);
+      this.path = path;
+      this.digester = digester;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      long start = System.nanoTime();
+      out.write(b);
+      writeNanos.addAndGet(System.nanoTime() - start);
+      crc.update(b);
+      if (digester != null) {
+        digester.write(b);
+      }
+      length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      out.write(b, off, len);
+      writeNanos.addAndGet(System.nanoTime() - start);
+      crc.update(b, off, len);
+      if (digester != null) {
+        digester.write(b, off, len);
+      }
+      length += len;
+    }
+
+    /**
+     * Excludes this output from the tracker, for outputs that are abandoned and written again. An output that is
+     * already closed is taken out of the tracker again.
+     */
+    synchronized void discard() {
+      if (discarded) {
+        return;
+      }
+      discarded = true;
+      if (recorded) {
+        outputs.decrementAndGet();
+        bytesWritten.addAndGet(-length);
+        outputHash.addAndGet(-getHash());
+        if (digester != null) {
+          digests.remove(path, digester.getDigests());
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = System.nanoTime();
+      try {
+        super.close();
+      } finally {
+        writeNanos.addAndGet(System.nanoTime() - start);
+        if (digester != null) {
+          // also stops the digest thread of an output that failed
+          digester.close();
+        }
+      }
+      record();
+    }
+
+    private synchronized void record() {
+      if (!recorded && !discarded) {
+        recorded = true;
+        outputs.incrementAndGet();
+        bytesWritten.addAndGet(length);
+        // outputs of an archive may complete in any order, so they are combined with an order independent sum
+        outputHash.addAndGet(getHash());
+        if (digester != null) {
+          digests.put(path, digester.getDigests());
+        }
+      }
+    }
+
+    private long getHash() {
+      return mix(path.toString().hashCode() * 31L + crc.getValue(), length);
+    }
+  }
+
+  /**
+   * The bytes read and expanded by a file at some point of its expansion.
+   */
+  static final class Mark {
+    private final long bytesRead;
+    private final long bytesExpanded;
+
+    private Mark(long bytesRead, long bytesExpanded) {
+      this.bytesRead = bytesRead;
+      this.bytesExpanded = bytesExpanded;
+    }
+  }
+
+  /**
+   * Input stream that checks the bytes expanded by an entry, by its file and by the run against the limits.
+   */
+  private final class LimitedInputStream extends FilterInputStream {
+    private final AtomicLong entryBytes;
+
+    private LimitedInputStream(InputStream in, AtomicLong entryBytes) {
+      super(in);
+      this.entryBytes = entryBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = in.read();
+      if (read != -1) {
+        record(1);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) {
+        record(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      if (skipped > 0) {
+        record(skipped);
+      }
+      return skipped;
+    }
+
+    private void record(long bytes) throws IOException {
+      limits.checkEntrySize(source.getPath(), entryBytes.addAndGet(bytes));
+      recordExpanded(bytes);
+    }
+  }
+
+  /**
+   * Input stream that adds the time spent in its reads, and optionally the bytes read, to the given counters.
+   */
+  private static final class TimedInputStream extends FilterInputStream {
+    private final AtomicLong nanos;
+    private final AtomicLong bytes;
+
+    private TimedInputStream(InputStream in, AtomicLong nanos, @Nullable AtomicLong bytes) {
+      super(in);
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      int read = in.read();
+      record(start, read == -1 ? 0 : 1);
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      int read = in.read(b, off, len);
+      record(start, Math.max(read, 0));
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long start = System.nanoTime();
+      long skipped = in.skip(n);
+      record(start, skipped);
+      return skipped;
+    }
+
+    private void record(long start, long length) {
+      nanos.addAndGet(System.nanoTime() - start);
+      if (bytes != null) {
+        bytes.addAndGet(length);
+      }
+    }
+  }
+}
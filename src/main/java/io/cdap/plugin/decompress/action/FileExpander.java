@@ -0,0 +1,781 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.cdap.plugin.decompress.common.DecompressingStreamFactory;
+import io.cdap.plugin.decompress.common.EntryFilter;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import io.cdap.plugin.decompress.common.PositionedReadChannel;
+import io.cdap.plugin.decompress.common.StreamFormats;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Lists the source files of a {@link DecompressActionConfig} and expands them one at a time. It holds no state
+ * about a run, so the same expander can be shared by the threads expanding files concurrently, whether they run in
+ * the action or in the executors of the Spark compute stage.
+ */
+final class FileExpander {
+  private static final Logger LOG = LoggerFactory.getLogger(FileExpander.class);
+  private static final int ZIP_SIGNATURE_LENGTH = 4;
+  private static final int LISTING_WINDOW = 1024;
+  private static final int DEFAULT_QUEUE_DEPTH = 4;
+  private static final Set<String> ARCHIVE_EXTENSIONS = ImmutableSet.of("tar", "zip", "jar", "cpio", "ar", "arj",
+                                                                        "7z", "dump");
+
+  private final DecompressActionConfig config;
+  private final DecompressingStreamFactory decompressingStreams;
+  private final IOBuffers ioBuffers;
+  private final EntryFilter entryFilter;
+  private final OutputCodec outputCodec;
+  private final List<OutputDigest> outputDigests;
+  private final boolean pipelined;
+  private final int queueDepth;
+  private final int bufferCount;
+  private final ExecutorService pipelineThreads;
+  private final ExpansionLimits limits;
+  private final MemoryEstimator memoryEstimator;
+
+  FileExpander(DecompressActionConfig config, Configuration conf) {
+    this.config = config;
+    this.decompressingStreams = new DecompressingStreamFactory(config.getCodecBackend(), conf, false);
+    this.ioBuffers = new IOBuffers(config.getReadBufferSize(), config.getWriteBufferSize());
+    this.entryFilter = new EntryFilter(config.getEntryIncludeRegex(), config.getEntryExcludeRegex());
+    this.outputCodec = config.getOutputCodec();
+    this.outputDigests = config.getOutputDigests();
+    this.pipelined = config.getPipelineQueueDepth() != null;
+    this.queueDepth = pipelined ? config.getPipelineQueueDepth() : DEFAULT_QUEUE_DEPTH;
+    this.bufferCount = config.getPipelineBufferCount() == null ? queueDepth + 1 : config.getPipelineBufferCount();
+    // threads are only started for streams read or written asynchronously, and exit once idle for a minute
+    this.pipelineThreads = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("decompress-pipeline-%d").setDaemon(true).build());
+    this.limits = new ExpansionLimits(config.getMaxFileExpandedBytes(), config.getMaxRunExpandedBytes(),
+                                      config.getMaxCompressionRatio(), config.getMaxEntries(),
+                                      config.getMaxEntrySize());
+    this.memoryEstimator = new MemoryEstimator(ioBuffers, pipelined ? bufferCount : 0, config.getThreadsPerFile());
+  }
+
+  /**
+   * Returns the limits the files expanded by this expander are checked against, to be given to their trackers. The
+   * limit on the bytes expanded by a run covers all these files.
+   */
+  ExpansionLimits getLimits() {
+    return limits;
+  }
+
+  /**
+   * Returns the estimated number of bytes of memory taken by expanding the given file.
+   */
+  long estimateMemory(FileStatus file, FileSystem fileSystem) {
+    return memoryEstimator.estimate(file, fileSystem);
+  }
+
+  /**
+   * Lists the files to expand. The source is either a single file, or a directory or glob whose files matching the
+   * regular expression are expanded, in which case the destination directory is created. With streaming listing,
+   * the files are listed lazily as the iterator advances and listing failures are thrown as
+   * {@link java.io.UncheckedIOException}.
+   */
+  Iterator<FileStatus> listFiles(Path source, Path dest, FileSystem fileSystem) throws IOException {
+    fileSystem.mkdirs(dest.getParent());
+
+    // Convert a single file
+    if (fileSystem.exists(source) && fileSystem.getFileStatus(source).isFile()) {
+      return Iterators.singletonIterator(fileSystem.getFileStatus(source));
+    }
+    // Convert all the files in a directory
+    PathFilter filter = new PathFilter() {
+      private final Pattern pattern = Pattern.compile(config.getFileRegex());
+
+      @Override
+      public boolean accept(Path path) {
+        return pattern.matcher(path.getName()).matches();
+      }
+    };
+    if (fileSystem.exists(dest) && fileSystem.isFile(dest)) {
+      throw new IllegalArgumentException(
+        String.format("Destination %s needs to be a directory since the source is a " +
+                        "directory", config.getDestFilePath()));
+    }
+    // create destination directory if necessary
+    fileSystem.mkdirs(dest);
+
+    if (config.getStreamingListing() || config.getRecursive()) {
+      return StreamingListing.list(fileSystem, source, filter, config.getRecursive(), LISTING_WINDOW);
+    }
+    FileStatus[] listFiles = fileSystem.globStatus(source, filter);
+    if (listFiles == null || listFiles.length == 0 || (listFiles.length == 1 && listFiles[0].isDirectory())) {
+      // try again without globbing action
+      listFiles = fileSystem.listStatus(source, filter);
+    }
+
+    List<FileStatus> files = new ArrayList<>();
+    for (FileStatus file : listFiles) {
+      if (!file.isDirectory()) { // ignore directories
+        files.add(file);
+      }
+    }
+    return files.iterator();
+  }
+
+  /**
+   * Returns the path that expanding the given source into the destination directory writes to. For archives this
+   * is the folder the entries are extracted into.
+   */
+  Path getDestinationKey(Path source, Path dest) {
+    String name = stripExtension(source.getName());
+    if (config.getArchivedOrCompressed().equalsIgnoreCase("archived then compressed")) {
+      name = stripExtension(name);
+    } else if (config.getArchivedOrCompressed().equalsIgnoreCase(DecompressActionConfig.AUTO)) {
+      name = stripArchiveExtension(name);
+    }
+    return new Path(dest, name);
+  }
+
+  private static String stripExtension(String name) {
+    int index = name.lastIndexOf('.');
+    return index > 0 ? name.substring(0, index) : name;
+  }
+
+  /**
+   * Strips the extension of the name if it is the extension of an archive format, such as the .tar left over in
+   * the name of a .tar.gz file once its compression extension is stripped.
+   */
+  private static String stripArchiveExtension(String name) {
+    int index = name.lastIndexOf('.');
+    return index > 0 && ARCHIVE_EXTENSIONS.contains(name.substring(index + 1).toLowerCase())
+      ? name.substring(0, index) : name;
+  }
+
+  /**
+   * Expands a single file. Failures are logged and reported through the return value if the plugin is
+   * configured to continue on error, and thrown otherwise.
+   *
+   * @return true if the file was expanded, false if it failed and the failure was ignored
+   */
+  boolean expand(Path source, Path dest, FileSystem fileSystem, ExpansionTracker tracker)
+    throws ArchiveException, CompressorException, IOException, IllegalArgumentException {
+    return expand(source, dest, fileSystem, tracker, null);
+  }
+
+  /**
+   * Expands a single file, staging its output with the given committer if there is one. The staged output is
+   * committed only once the whole file is expanded, and deleted if expanding or committing it fails.
+   *
+   * @return true if the file was expanded, false if it failed and the failure was ignored
+   */
+  boolean expand(Path source, Path dest, FileSystem fileSystem, ExpansionTracker tracker,
+                 @Nullable StagedCommitter committer)
+    throws ArchiveException, CompressorException, IOException, IllegalArgumentException {
+    StagedCommitter.Staging staging = null;
+    try {
+      if (committer == null) {
+        expandTo(source, dest, fileSystem, tracker);
+      } else {
+        staging = committer.stage();
+        expandTo(source, staging.getDestination(), fileSystem, tracker);
+        staging.commit(tracker);
+      }
+      return true;
+    } catch (ArchiveException | CompressorException | IOException e) {
+      if (!config.getContinueOnError()) {
+        throw e;
+      }
+      LOG.warn(e.getMessage(), e.getCause());
+      return false;
+    } finally {
+      if (staging != null) {
+        staging.abort();
+      }
+    }
+  }
+
+  private void expandTo(Path source, Path dest, FileSystem fileSystem, ExpansionTracker tracker)
+    throws ArchiveException, CompressorException, IOException {
+    switch (config.getArchivedOrCompressed().toLowerCase()) {
+      case "compressed" :
+        processCompressedFiles(source, dest, fileSystem, tracker);
+        break;
+      case "archived" :
+        processArchiveFiles(source, dest, fileSystem, tracker);
+        break;
+      case "archived then compressed":
+        processArchivedThenCompressedFiles(source, dest, fileSystem, tracker);
+        break;
+      case DecompressActionConfig.AUTO:
+        processAutoDetectedFiles(source, dest, fileSystem, tracker);
+        break;
+      default:
+        throw new IllegalArgumentException("archivedOrCompressed must be one of " +
+                                             "'archived','compressed', 'archive then compressed' or 'auto' " +
+                                             "but was: " + config.getArchivedOrCompressed());
+    }
+    if (!outputDigests.isEmpty()) {
+      long start = System.nanoTime();
+      DigestManifest.write(source, dest, fileSystem, outputDigests, tracker.getDigests());
+      tracker.recordWrite(System.nanoTime() - start);
+    }
+  }
+
+  private void processArchiveFiles(Path source, Path dest, FileSystem fileSystem,
+                                   ExpansionTracker tracker) throws ArchiveException, IOException {
+    Path destPathWithFolder = new Path(dest.toString() + "/" + stripExtension(source.getName()));
+    try (InputStream input = openSource(source, fileSystem, tracker)) {
+      expandArchive(input, source, dest, destPathWithFolder, fileSystem, tracker);
+    } catch (ArchiveException e) {
+      throw new ArchiveException(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
+    } catch (IOException e) {
+      throw new IOException(String.format("Failed to expand archived files %s to %s", source.toString(), dest.toString()), e);
+    }
+  }
+
+  /**
+   * Expands an archive that was compressed as a whole, such as a .tar.gz, in a single pass. The decompressed
+   * stream is fed straight into the archive reader so the intermediate archive is never written out.
+   */
+  private void processArchivedThenCompressedFiles(Path source, Path dest, FileSystem fileSystem,
+                                                  ExpansionTracker tracker)
+    throws ArchiveException, CompressorException, IOException {
+    Path destPathWithFolder = new Path(dest.toString() + "/" + stripExtension(stripExtension(source.getName())));
+    try (InputStream input = decompressingStreams.open(source, openSource(source, fileSystem, tracker))) {
+      extractArchive(new BufferedInputStream(input), source, dest, destPathWithFolder, fileSystem, tracker, null, 0);
+    } catch (ArchiveException e) {
+      throw new ArchiveException(String.format("Failed to expand archived then compressed files %s to %s",
+                                               source.toString(), dest.toString()), e);
+    } catch (CompressorException e) {
+      throw new CompressorException(String.format("Failed to expand archived then compressed files %s to %s",
+                                                  source.toString(), dest.toString()), e);
+    } catch (IOException e) {
+      throw new IOException(String.format("Failed to expand archived then compressed files %s to %s",
+                                          source.toString(), dest.toString()), e);
+    }
+  }
+
+  /**
+   * Expands a file whose format is detected from its first bytes. Archives are extracted, compressed files are
+   * decompressed, and compressed files whose decompressed contents are an archive are extracted in a single pass,
+   * just like with the 'archived then compressed' setting.
+   */
+  private void processAutoDetectedFiles(Path source, Path dest, FileSystem fileSystem, ExpansionTracker tracker)
+    throws ArchiveException, CompressorException, IOException {
+    try (InputStream input = openSource(source, fileSystem, tracker)) {
+      if (StreamFormats.isArchive(input)) {
+        Path destPathWithFolder = new Path(dest.toString() + "/" + stripExtension(source.getName()));
+        expandArchive(input, source, dest, destPathWithFolder, fileSystem, tracker);
+        return;
+      }
+      if (!StreamFormats.isCompressed(input)) {
+        throw new IOException(String.format("Unable to detect the archive or compression format of %s", source));
+      }
+      try (InputStream decompressed = new BufferedInputStream(decompressingStreams.open(source, input))) {
+        if (StreamFormats.isArchive(decompressed)) {
+          Path destPathWithFolder = new Path(dest.toString() + "/" +
+                                               stripArchiveExtension(stripExtension(source.getName())));
+          extractArchive(decompressed, source, dest, destPathWithFolder, fileSystem, tracker, null, 0);
+          return;
+        }
+        Path actualDestPath = getCompressedDestPath(source, dest, fileSystem);
+        // members can only be decompressed in parallel by reading the file again from its start
+        if (!decompressMembersInParallel(source, actualDestPath, fileSystem, tracker)) {
+          copyToDecompressedFile(decompressed, actualDestPath, fileSystem, tracker);
+        }
+      }
+    } catch (ArchiveException e) {
+      throw new ArchiveException(String.format("Failed to expand %s to %s", source.toString(), dest.toString()), e);
+    } catch (CompressorException e) {
+      throw new CompressorException(String.format("Failed to expand %s to %s", source.toString(), dest.toString()),
+                                    e);
+    } catch (IOException e) {
+      throw new IOException(String.format("Failed to expand %s to %s", source.toString(), dest.toString()), e);
+    }
+  }
+
+  /**
+   * Extracts the archive read from the given stream, which must start at the beginning of the source file. ZIP
+   * archives are extracted from their central directory, concurrently if several threads per file are configured,
+   * and also when the source is on the local file system and stores entries without compression, so that those
+   * entries can be transferred directly.
+   */
+  private void expandArchive(InputStream input, Path source, Path dest, Path destPathWithFolder,
+                             FileSystem fileSystem, ExpansionTracker tracker) throws ArchiveException, IOException {
+    // entries transferred directly would skip the output codec, the digests and the check for nested archives
+    try (StoredEntryTransfer transfer = outputCodec == OutputCodec.NONE && outputDigests.isEmpty() &&
+      config.getMaxNestingDepth() == 0 ? StoredEntryTransfer.open(fileSystem, source) : null) {
+      if ((config.getThreadsPerFile() > 1 || transfer != null) && isZipArchive(input)) {
+        try (ZipFile zipFile = openZipFile(source, fileSystem, tracker)) {
+          // streaming the archive is faster when it has no entry to transfer and a single thread to extract it
+          if (config.getThreadsPerFile() > 1 || hasStoredEntries(zipFile)) {
+            extractZipArchive(zipFile, source, dest, destPathWithFolder, fileSystem, tracker, transfer);
+            return;
+          }
+        }
+      }
+      extractArchive(input, source, dest, destPathWithFolder, fileSystem, tracker, transfer, 0);
+    }
+  }
+
+  private static ZipFile openZipFile(Path source, FileSystem fileSystem, ExpansionTracker tracker) throws IOException {
+    long length = fileSystem.getFileStatus(source).getLen();
+    return new ZipFile(new PositionedReadChannel(fileSystem.open(source), length, tracker::recordRead),
+                       source.toString(), StandardCharsets.UTF_8.name(), true);
+  }
+
+  private static boolean hasStoredEntries(ZipFile zipFile) {
+    for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+      if (StoredEntryTransfer.getDataOffset(entry) != StoredEntryTransfer.NOT_STORED) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Extracts every entry of the archive read from the given stream into the destination folder. The stream must
+   * support mark and reset so that the archive format can be detected. Entries stored without compression are
+   * transferred directly from the source file if a transfer is given.
+   *
+   * @param depth the number of archive or compression layers the archive is nested in, 0 for a source file
+   */
+  private void extractArchive(InputStream archive, Path source, Path dest, Path destPathWithFolder,
+                              FileSystem fileSystem, ExpansionTracker tracker, @Nullable StoredEntryTransfer transfer,
+                              int depth) throws ArchiveException, IOException {
+    fileSystem.mkdirs(destPathWithFolder);
+    try (ArchiveCheckpoint checkpoint = depth == 0
+      ? loadCheckpoint(source, dest, fileSystem, ArchiveCheckpoint.STREAMED) : null;
+         ArchiveInputStream input = new ArchiveStreamFactory().createArchiveInputStream(archive);
+         EntryCoalescer coalescer = createCoalescer(destPathWithFolder, fileSystem, tracker)) {
+      long index = 0;
+      ZipCrcInputStream crcInput = null;
+      ArchiveEntry entry = getNextEntry(input, tracker);
+      // iterates over entries in the archive file
+      while (entry != null) {
+        long dataOffset = transfer == null ? StoredEntryTransfer.NOT_STORED
+          : StoredEntryTransfer.getDataOffset(input, entry);
+        if (checkpoint != null && checkpoint.isCommitted(index, entry.getName())) {
+          // extracted by a previous attempt, the archive stream skips over the data of the entry
+        } else if (!entryFilter.isSelected(entry.getName())) {
+          // the archive stream skips over the data of the entry when it moves to the next one
+          tracker.recordSkippedEntry();
+        } else if (!input.canReadEntryData(entry)) {
+          LOG.warn(String.format("Archive entry is using a feature that is not supported yet. " +
+                                   "Skipping this entry. Source: %s Dest: %s", source.toString(), dest.toString()));
+        } else if (dataOffset != StoredEntryTransfer.NOT_STORED && (coalescer == null || !coalescer.accepts(entry))) {
+          // the archive stream seeks over the data of the entry when it moves to the next one
+          tracker.recordEntry();
+          Path entryPath = getEntryPath(destPathWithFolder, entry);
+          checkPath(coalescer, entryPath);
+          transfer.transfer(dataOffset, entry.getSize(), StoredEntryTransfer.NO_CRC, entryPath, tracker);
+        } else if (entry instanceof ZipArchiveEntry && !entry.isDirectory()) {
+          crcInput = new ZipCrcInputStream(input, (ZipArchiveEntry) entry);
+          extractEntry(entry, crcInput, destPathWithFolder, fileSystem, tracker, coalescer, depth);
+        } else {
+          extractEntry(entry, input, destPathWithFolder, fileSystem, tracker, coalescer, depth);
+        }
+        ArchiveEntry next = getNextEntry(input, tracker);
+        // moving to the next entry reads the data descriptor that may hold the CRC of this one
+        if (crcInput != null) {
+          crcInput.checkDescriptor();
+          crcInput = null;
+        }
+        if (checkpoint != null) {
+          checkpoint.commit(index, entry.getName());
+        }
+        index++;
+        entry = next;
+      }
+      if (checkpoint != null) {
+        checkpoint.complete();
+      }
+    }
+  }
+
+  private static ArchiveEntry getNextEntry(ArchiveInputStream input, ExpansionTracker tracker) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return input.getNextEntry();
+    } finally {
+      tracker.recordInflate(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Extracts the entries of a ZIP archive concurrently. The central directory is read once, after which each entry
+   * is inflated independently using positioned reads on the source file. Entries stored without compression are
+   * transferred directly from the source file if a transfer is given.
+   */
+  private void extractZipArchive(ZipFile zipFile, Path source, Path dest, Path destPathWithFolder,
+                                 FileSystem fileSystem, ExpansionTracker tracker,
+                                 @Nullable StoredEntryTransfer transfer) throws IOException {
+    fileSystem.mkdirs(destPathWithFolder);
+    try (ArchiveCheckpoint checkpoint = loadCheckpoint(source, dest, fileSystem, ArchiveCheckpoint.CENTRAL_DIRECTORY);
+         EntryCoalescer coalescer = createCoalescer(destPathWithFolder, fileSystem, tracker)) {
+      // entries are numbered in physical order, just like when the archive is streamed, so that skipped entries and
+      // entries replaced by later ones with the same name are numbered too
+      List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+      Map<String, Integer> lastIndexes = new HashMap<>();
+      for (int index = 0; index < entries.size(); index++) {
+        lastIndexes.put(entries.get(index).getName(), index);
+      }
+      List<BoundedTaskRunner.Task> tasks = new ArrayList<>(entries.size());
+      for (int index = 0; index < entries.size(); index++) {
+        ZipArchiveEntry entry = entries.get(index);
+        long entryIndex = index;
+        // entries extracted by a previous attempt are looked up in the central directory and never read
+        if (checkpoint != null && checkpoint.isCommitted(entryIndex, entry.getName())) {
+          continue;
+        }
+        if (entryFilter.isSelected(entry.getName()) && lastIndexes.get(entry.getName()) == index) {
+          tasks.add(() -> {
+            extractZipEntry(zipFile, entry, source, dest, destPathWithFolder, fileSystem, tracker, transfer,
+                            coalescer);
+            if (checkpoint != null) {
+              checkpoint.commit(entryIndex, entry.getName());
+            }
+          });
+          continue;
+        }
+        // entries that are not selected, or that a later entry with the same name replaces, are never read
+        if (!entryFilter.isSelected(entry.getName())) {
+          tracker.recordSkippedEntry();
+        }
+        if (checkpoint != null) {
+          checkpoint.commit(entryIndex, entry.getName());
+        }
+      }
+      BoundedTaskRunner.run("decompress-zip", config.getThreadsPerFile(), tasks.iterator());
+      if (checkpoint != null) {
+        checkpoint.complete();
+      }
+    } catch (Exception e) {
+      Throwables.propagateIfPossible(e, IOException.class);
+      throw new IOException(e);
+    }
+  }
+
+  private void extractZipEntry(ZipFile zipFile, ZipArchiveEntry entry, Path source, Path dest,
+                               Path destPathWithFolder, FileSystem fileSystem, ExpansionTracker tracker,
+                               @Nullable StoredEntryTransfer transfer, @Nullable EntryCoalescer coalescer)
+    throws IOException {
+    if (!zipFile.canReadEntryData(entry)) {
+      LOG.warn(String.format("Archive entry is using a feature that is not supported yet. " +
+                               "Skipping this entry. Source: %s Dest: %s", source.toString(), dest.toString()));
+      return;
+    }
+    long dataOffset = transfer == null ? StoredEntryTransfer.NOT_STORED : StoredEntryTransfer.getDataOffset(entry);
+    if (dataOffset != StoredEntryTransfer.NOT_STORED && (coalescer == null || !coalescer.accepts(entry))) {
+      tracker.recordEntry();
+      tracker.recordRead(entry.getSize(), 0);
+      Path entryPath = getEntryPath(destPathWithFolder, entry);
+      checkPath(coalescer, entryPath);
+      transfer.transfer(dataOffset, entry.getSize(), entry.getCrc(), entryPath, tracker);
+      return;
+    }
+    try (InputStream input = zipFile.getInputStream(entry)) {
+      extractEntry(entry, new ZipCrcInputStream(input, entry), destPathWithFolder, fileSystem, tracker, coalescer, 0);
+    }
+  }
+
+  /**
+   * Returns the checkpoint of the source file extracted into the destination when read the given way, or null if
+   * checkpoints are disabled.
+   */
+  @Nullable
+  private ArchiveCheckpoint loadCheckpoint(Path source, Path dest, FileSystem fileSystem,
+                                           String mode) throws IOException {
+    if (config.getCheckpointInterval() == null) {
+      return null;
+    }
+    return ArchiveCheckpoint.load(fileSystem, source, dest, mode, config.getCheckpointInterval());
+  }
+
+  /**
+   * Returns the coalescer for the small entries of an archive, or null if small entries are not coalesced.
+   */
+  @Nullable
+  private EntryCoalescer createCoalescer(Path destPathWithFolder, FileSystem fileSystem, ExpansionTracker tracker) {
+    if (config.getCoalesceThreshold() == null) {
+      return null;
+    }
+    return new EntryCoalescer(destPathWithFolder, config.getCoalesceThreshold(), config.getCoalesceTargetSize(),
+                              path -> createOutput(path, fileSystem, tracker), ioBuffers, fileSystem);
+  }
+
+  /**
+   * Extracts an entry of an archive nested in {@code depth} layers. Entries that are themselves archived or
+   * compressed are expanded from the entry stream if the maximum nesting depth allows it.
+   */
+  private void extractEntry(ArchiveEntry entry, InputStream input, Path destPathWithFolder, FileSystem fileSystem,
+                            ExpansionTracker tracker, @Nullable EntryCoalescer coalescer, int depth)
+    throws IOException {
+    Path actualDestPath = getEntryPath(destPathWithFolder, entry);
+    tracker.recordEntry();
+    if (!entry.isDirectory() && depth < config.getMaxNestingDepth()) {
+      input = new BufferedInputStream(input);
+      if (expandNested(input, actualDestPath, fileSystem, tracker, coalescer, depth + 1)) {
+        return;
+      }
+    }
+    if (coalescer != null && coalescer.accepts(entry)) {
+      coalescer.append(entry, tracker.trackExpanded(input));
+      return;
+    }
+    checkPath(coalescer, actualDestPath);
+    if (!entry.isDirectory()) {
+      // if the entry is a file, extracts it
+      copyToFile(input, actualDestPath, fileSystem, tracker);
+    } else {
+      // if the entry is a directory, make the directory
+      fileSystem.mkdirs(actualDestPath);
+    }
+  }
+
+  /**
+   * Expands the nested archive or compressed file read from the given stream, which must support mark and reset,
+   * into the folder or file named after the path without its extension. Nothing is written for the intermediate
+   * layers, and the stream is not closed. Compressed layers are decoded by the configured codec backend, which picks
+   * the Hadoop codec from the extension of the path.
+   *
+   * @param depth the number of layers the data of the stream is nested in
+   * @return false if the stream holds neither an archive nor a compressed file that can be decompressed, or nesting
+   *         is too deep, in which case nothing was read from the stream
+   */
+  private boolean expandNested(InputStream input, Path path, FileSystem fileSystem, ExpansionTracker tracker,
+                               @Nullable EntryCoalescer coalescer, int depth) throws IOException {
+    if (depth > config.getMaxNestingDepth()) {
+      return false;
+    }
+    Path expandedPath = new Path(path.getParent(), stripExtension(path.getName()));
+    InputStream nested = new FilterInputStream(input) {
+      @Override
+      public void close() {
+        // the enclosing archive keeps reading from the stream
+      }
+    };
+    try {
+      if (StreamFormats.isArchive(input)) {
+        checkPath(coalescer, expandedPath);
+        extractArchive(nested, path, path, expandedPath, fileSystem, tracker, null, depth);
+        return true;
+      }
+      if (!StreamFormats.isCompressed(input)) {
+        return false;
+      }
+      if (!StreamFormats.isDecompressible(input)) {
+        // written out unchanged, like entries of a format that is not detected, rather than failing the archive
+        LOG.debug("Not decompressing nested file {}, whose compression library is not available", path);
+        return false;
+      }
+      checkPath(coalescer, expandedPath);
+      try (InputStream decompressed = new BufferedInputStream(decompressingStreams.open(path, nested))) {
+        if (!expandNested(decompressed, expandedPath, fileSystem, tracker, coalescer, depth + 1)) {
+          copyToFile(decompressed, expandedPath, fileSystem, tracker);
+        }
+      }
+      return true;
+    } catch (ArchiveException | CompressorException e) {
+      throw new IOException(String.format("Failed to expand nested file %s", path), e);
+    }
+  }
+
+  /**
+   * Checks that the path an entry is expanded to does not take the name of a part file of the coalescer, if any.
+   */
+  private static void checkPath(@Nullable EntryCoalescer coalescer, Path path) throws IOException {
+    if (coalescer != null) {
+      coalescer.checkPath(path);
+    }
+  }
+
+  private static Path getEntryPath(Path destPathWithFolder, ArchiveEntry entry) {
+    return new Path(destPathWithFolder.toString() + "/" + entry.getName());
+  }
+
+  private void copyToFile(InputStream input, Path path, FileSystem fileSystem,
+                          ExpansionTracker tracker) throws IOException {
+    try (OutputStream out = createOutput(path, fileSystem, tracker)) {
+      ioBuffers.copy(tracker.trackExpanded(input), out, fileSystem);
+    }
+  }
+
+  private void copyToDecompressedFile(InputStream input, Path path, FileSystem fileSystem,
+                                      ExpansionTracker tracker) throws IOException {
+    try (OutputStream out = createDecompressedOutput(path, fileSystem, tracker)) {
+      ioBuffers.copy(tracker.trackExpanded(input), out, fileSystem);
+    }
+  }
+
+  /**
+   * Creates the output a compressed file is decompressed to. With an output part size, the path is a directory the
+   * decompressed data is split into parts in; anything already at the path is replaced, since a previous attempt may
+   * have left more parts than this one writes.
+   */
+  private OutputStream createDecompressedOutput(Path path, FileSystem fileSystem,
+                                                ExpansionTracker tracker) throws IOException {
+    Long partSize = config.getOutputPartSize();
+    if (partSize == null) {
+      return createOutput(path, fileSystem, tracker);
+    }
+    fileSystem.delete(path, true);
+    return new PartedOutputStream(path, partSize, part -> createOutput(part, fileSystem, tracker), pipelineThreads,
+                                  config.getThreadsPerFile());
+  }
+
+  /**
+   * Excludes an output created by {@link #createDecompressedOutput} from the tracker.
+   */
+  private static void discard(OutputStream out) {
+    if (out instanceof PartedOutputStream) {
+      ((PartedOutputStream) out).discard();
+    } else {
+      ((ExpansionTracker.TrackedOutputStream) out).discard();
+    }
+  }
+
+  /**
+   * Creates the output for the given path. With an output codec, the codec extension is appended to the path and
+   * the data is compressed on a writer thread, so that compressing overlaps with decompressing. A pipelined copy
+   * writes on a writer thread even without a codec. The output is tracked and digested before it is compressed.
+   */
+  private ExpansionTracker.TrackedOutputStream createOutput(Path path, FileSystem fileSystem,
+                                                            ExpansionTracker tracker) throws IOException {
+    long start = System.nanoTime();
+    Path outputPath = path.suffix(outputCodec.getExtension());
+    int bufferSize = ioBuffers.getWriteBufferSize(fileSystem);
+    OutputStream out = fileSystem.create(outputPath, true, bufferSize);
+    if (pipelined || outputCodec != OutputCodec.NONE) {
+      out = new AsyncOutputStream(outputCodec.compress(out), pipelineThreads, bufferSize, queueDepth, bufferCount);
+    }
+    tracker.recordWrite(System.nanoTime() - start);
+    OutputDigester digester = outputDigests.isEmpty() ? null
+      : new OutputDigester(outputDigests, pipelineThreads, bufferSize, queueDepth, bufferCount);
+    return tracker.track(outputPath, out, digester);
+  }
+
+  /**
+   * Opens the source file, reading it ahead on a reader thread for a pipelined copy.
+   */
+  private InputStream openSource(Path source, FileSystem fileSystem, ExpansionTracker tracker) throws IOException {
+    int bufferSize = ioBuffers.getReadBufferSize(fileSystem, tracker.getSource().getLen());
+    InputStream input = tracker.trackSource(fileSystem.open(source, bufferSize));
+    if (pipelined) {
+      input = new AsyncInputStream(input, pipelineThreads, bufferSize, queueDepth, bufferCount);
+    }
+    return new BufferedInputStream(input, bufferSize);
+  }
+
+  /**
+   * Checks whether the stream starts with a ZIP signature, leaving the stream at its current position.
+   */
+  private static boolean isZipArchive(InputStream input) throws IOException {
+    byte[] signature = new byte[ZIP_SIGNATURE_LENGTH];
+    input.mark(signature.length);
+    int length = IOUtils.readFully(input, signature);
+    input.reset();
+    return ZipArchiveInputStream.matches(signature, length);
+  }
+
+  private void processCompressedFiles(Path source, Path dest, FileSystem fileSystem,
+                                      ExpansionTracker tracker) throws CompressorException, IOException {
+    Path actualDestPath = getCompressedDestPath(source, dest, fileSystem);
+    try {
+      if (decompressMembersInParallel(source, actualDestPath, fileSystem, tracker)) {
+        return;
+      }
+      try (InputStream input = decompressingStreams.open(source, openSource(source, fileSystem, tracker))) {
+        copyToDecompressedFile(input, actualDestPath, fileSystem, tracker);
+      }
+    } catch (CompressorException e) {
+      throw new CompressorException(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
+    } catch (IOException e) {
+      throw new IOException(String.format("Failed to expand compressed files %s to %s", source.toString(), dest.toString()), e);
+    }
+  }
+
+  /**
+   * Returns the path a compressed file is decompressed to, which is in the destination if it is a directory.
+   */
+  private static Path getCompressedDestPath(Path source, Path dest, FileSystem fileSystem) throws IOException {
+    return fileSystem.isDirectory(dest) ? new Path(dest.toString() + "/" + stripExtension(source.getName())) : dest;
+  }
+
+  /**
+   * Decompresses the members of a multi-member gzip or bzip2 file concurrently, if enabled.
+   *
+   * @return true if the file was decompressed, false if it has to be decompressed sequentially
+   */
+  private boolean decompressMembersInParallel(Path source, Path actualDestPath, FileSystem fileSystem,
+                                              ExpansionTracker tracker) throws IOException {
+    if (!config.getDecompressMembersInParallel() || config.getThreadsPerFile() <= 1) {
+      return false;
+    }
+    MultiMemberDecompressor decompressor = new MultiMemberDecompressor(fileSystem, config.getThreadsPerFile());
+    List<Long> segments = decompressor.findSegments(source);
+    if (segments.isEmpty()) {
+      return false;
+    }
+    LOG.debug("Decompressing {} as {} segments", source, segments.size() - 1);
+    ExpansionTracker.Mark mark = tracker.mark();
+    OutputStream out = createDecompressedOutput(actualDestPath, fileSystem, tracker);
+    try {
+      decompressor.decompress(source, segments, out, tracker);
+    } catch (MultiMemberDecompressor.SegmentDecodeException e) {
+      // the file is read and the output written again by the sequential decompression
+      discard(out);
+      tracker.reset(mark);
+      LOG.warn("Falling back to sequential decompression of {}: {}", source, e.getMessage());
+      return false;
+    } finally {
+      out.close();
+    }
+    return true;
+  }
+}
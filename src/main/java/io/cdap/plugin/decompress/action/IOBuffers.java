@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Sizes the buffers used to read source files and write expanded files, and copies data through a buffer that is
+ * reused by each worker thread.
+ *
+ * Object stores such as GCS and S3 serve every request with a high fixed latency, so they are read and written with
+ * much larger buffers than local and HDFS paths when the sizes are chosen automatically.
+ */
+final class IOBuffers {
+  private static final Set<String> OBJECT_STORE_SCHEMES =
+    ImmutableSet.of("gs", "s3", "s3a", "s3n", "wasb", "wasbs", "abfs", "abfss", "adl", "oss");
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  private static final int OBJECT_STORE_BUFFER_SIZE = 4 * 1024 * 1024;
+  private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+  private final Integer readBufferSize;
+  private final Integer writeBufferSize;
+  private final ThreadLocal<byte[]> copyBuffers = new ThreadLocal<>();
+
+  /**
+   * @param readBufferSize size of the buffer for reading source files, or null to choose it automatically
+   * @param writeBufferSize size of the buffer for writing expanded files, or null to choose it automatically
+   */
+  IOBuffers(@Nullable Integer readBufferSize, @Nullable Integer writeBufferSize) {
+    this.readBufferSize = readBufferSize;
+    this.writeBufferSize = writeBufferSize;
+  }
+
+  /**
+   * Returns the buffer size to read a file of the given length with. Automatic sizes never exceed the file length.
+   */
+  int getReadBufferSize(FileSystem fileSystem, long fileLength) {
+    if (readBufferSize != null) {
+      return readBufferSize;
+    }
+    return (int) Math.max(MIN_BUFFER_SIZE, Math.min(getAutomaticSize(fileSystem), fileLength));
+  }
+
+  int getWriteBufferSize(FileSystem fileSystem) {
+    return writeBufferSize != null ? writeBufferSize : getAutomaticSize(fileSystem);
+  }
+
+  /**
+   * Copies the input to the output through the calling thread's buffer. The buffer is filled completely before it is
+   * written, so the output receives writes of the full buffer size even if the input returns small reads.
+   *
+   * @return the number of bytes copied
+   */
+  long copy(InputStream input, OutputStream out, FileSystem fileSystem) throws IOException {
+    byte[] buffer = getCopyBuffer(getWriteBufferSize(fileSystem));
+    long copied = 0;
+    while (true) {
+      int filled = 0;
+      int read = 0;
+      while (filled < buffer.length && (read = input.read(buffer, filled, buffer.length - filled)) != -1) {
+        filled += read;
+      }
+      if (filled > 0) {
+        out.write(buffer, 0, filled);
+        copied += filled;
+      }
+      if (read == -1) {
+        return copied;
+      }
+    }
+  }
+
+  private byte[] getCopyBuffer(int size) {
+    byte[] buffer = copyBuffers.get();
+    if (buffer == null || buffer.length != size) {
+      buffer = new byte[size];
+      copyBuffers.set(buffer);
+    }
+    return buffer;
+  }
+
+  private static int getAutomaticSize(FileSystem fileSystem) {
+    String scheme = fileSystem.getUri().getScheme();
+    return scheme != null && OBJECT_STORE_SCHEMES.contains(scheme.toLowerCase())
+      ? OBJECT_STORE_BUFFER_SIZE : DEFAULT_BUFFER_SIZE;
+  }
+}
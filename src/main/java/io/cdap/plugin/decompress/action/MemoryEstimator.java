@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Estimates the heap taken by expanding a file, so that files can be admitted against a memory budget.
+ *
+ * The estimate is the size of the decoder state for the format of the file, told by its extension, plus the buffers
+ * used to read and write it, times the number of threads that may expand it. The decoders of most formats take a
+ * bounded amount of memory, but the dictionary of xz and lzma files ranges from kilobytes to gigabytes, so it is read
+ * from their header. Files of other formats are never opened.
+ */
+final class MemoryEstimator {
+  private static final Logger LOG = LoggerFactory.getLogger(MemoryEstimator.class);
+  private static final int HEADER_LENGTH = 64;
+  private static final long DEFLATE_MEMORY = 256 * 1024;
+  // the block sorting arrays of the largest bzip2 block size
+  private static final long BZIP2_MEMORY = 5 * 1024 * 1024;
+  // the dictionary size of the default xz and lzma presets
+  private static final long DEFAULT_DICTIONARY_SIZE = 8 * 1024 * 1024;
+  private static final Set<String> XZ_EXTENSIONS = ImmutableSet.of("xz", "txz");
+  private static final Set<String> LZMA_EXTENSIONS = ImmutableSet.of("lzma", "tlz");
+  private static final Set<String> BZIP2_EXTENSIONS = ImmutableSet.of("bz2", "bzip2", "tbz", "tbz2");
+  private static final byte[] XZ_MAGIC = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+  private static final int XZ_STREAM_HEADER_LENGTH = 12;
+  private static final int XZ_LZMA2_FILTER = 0x21;
+
+  private final IOBuffers ioBuffers;
+  private final int pipelineBuffers;
+  private final int threadsPerFile;
+
+  /**
+   * @param pipelineBuffers the number of buffers of pipelined reads and writes, or 0 if they are not pipelined
+   */
+  MemoryEstimator(IOBuffers ioBuffers, int pipelineBuffers, int threadsPerFile) {
+    this.ioBuffers = ioBuffers;
+    this.pipelineBuffers = pipelineBuffers;
+    this.threadsPerFile = threadsPerFile;
+  }
+
+  /**
+   * Returns the estimated number of bytes of heap taken by expanding the file. A header that cannot be read is
+   * estimated like a header with the default dictionary size, leaving the failure to the expansion of the file.
+   */
+  long estimate(FileStatus file, FileSystem fileSystem) {
+    long buffers = ioBuffers.getReadBufferSize(fileSystem, file.getLen()) +
+      (long) ioBuffers.getWriteBufferSize(fileSystem);
+    return (getDecoderMemory(file, fileSystem) + buffers * (pipelineBuffers + 1)) * threadsPerFile;
+  }
+
+  private long getDecoderMemory(FileStatus file, FileSystem fileSystem) {
+    String name = file.getPath().getName();
+    String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+    if (BZIP2_EXTENSIONS.contains(extension)) {
+      return BZIP2_MEMORY;
+    }
+    if (!XZ_EXTENSIONS.contains(extension) && !LZMA_EXTENSIONS.contains(extension)) {
+      return DEFLATE_MEMORY;
+    }
+    byte[] header = new byte[HEADER_LENGTH];
+    int length;
+    try (InputStream input = fileSystem.open(file.getPath())) {
+      length = IOUtils.readFully(input, header);
+    } catch (IOException e) {
+      LOG.debug("Unable to read the header of {}", file.getPath(), e);
+      length = 0;
+    }
+    long dictionarySize = XZ_EXTENSIONS.contains(extension) ? getXzDictionarySize(header, length)
+      : getLzmaDictionarySize(header, length);
+    if (dictionarySize < 0) {
+      LOG.debug("Unable to read the dictionary size of {}, assuming {} bytes", file.getPath(),
+                DEFAULT_DICTIONARY_SIZE);
+      return DEFAULT_DICTIONARY_SIZE;
+    }
+    return dictionarySize;
+  }
+
+  /**
+   * Reads the dictionary size of the LZMA2 filter of the first block of an xz file. The blocks of a file written by
+   * a single encoder share the same filter settings.
+   *
+   * @return the dictionary size, or -1 if the header is not the start of an xz file with an LZMA2 block
+   */
+  static long getXzDictionarySize(byte[] header, int length) {
+    for (int i = 0; i < XZ_MAGIC.length; i++) {
+      if (i >= length || header[i] != XZ_MAGIC[i]) {
+        return -1;
+      }
+    }
+    int position = XZ_STREAM_HEADER_LENGTH;
+    // a zero block header size marks the index of an empty stream
+    if (position + 2 > length || header[position] == 0) {
+      return -1;
+    }
+    int flags = header[position + 1] & 0xff;
+    int filters = (flags & 0x03) + 1;
+    int[] cursor = {position + 2};
+    if ((flags & 0x40) != 0 && readVarint(header, length, cursor) < 0) {
+      return -1;
+    }
+    if ((flags & 0x80) != 0 && readVarint(header, length, cursor) < 0) {
+      return -1;
+    }
+    for (int i = 0; i < filters; i++) {
+      long id = readVarint(header, length, cursor);
+      long propertiesSize = readVarint(header, length, cursor);
+      if (id < 0 || propertiesSize < 0 || cursor[0] + propertiesSize > length) {
+        return -1;
+      }
+      if (id == XZ_LZMA2_FILTER && propertiesSize == 1) {
+        int bits = header[cursor[0]] & 0x3f;
+        if (bits > 40) {
+          return -1;
+        }
+        return bits == 40 ? 0xffffffffL : (2L | (bits & 1)) << (bits / 2 + 11);
+      }
+      cursor[0] += (int) propertiesSize;
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the dictionary size of a .lzma file, stored after the properties byte of its header.
+   *
+   * @return the dictionary size, or -1 if the header is too short
+   */
+  static long getLzmaDictionarySize(byte[] header, int length) {
+    if (length < 5) {
+      return -1;
+    }
+    return (header[1] & 0xffL) | (header[2] & 0xffL) << 8 | (header[3] & 0xffL) << 16 | (header[4] & 0xffL) << 24;
+  }
+
+  /**
+   * Reads a variable length integer of the xz format at the cursor, moving the cursor past it.
+   *
+   * @return the integer, or -1 if it does not fit in the header
+   */
+  private static long readVarint(byte[] header, int length, int[] cursor) {
+    long value = 0;
+    for (int shift = 0; shift < 63 && cursor[0] < length; shift += 7) {
+      int b = header[cursor[0]++] & 0xff;
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    return -1;
+  }
+}
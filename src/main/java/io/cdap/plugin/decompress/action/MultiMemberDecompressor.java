@@ -0,0 +1,316 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decompresses gzip files made of several members and bzip2 files made of several streams on multiple threads.
+ *
+ * Such files are produced by tools like bgzip and pbzip2, or simply by concatenating compressed files. Each member
+ * can be decoded on its own, so the file is cut into segments at member boundaries, the segments are decoded
+ * concurrently and their output is written back in order through a bounded reorder buffer.
+ *
+ * Member boundaries are found from the BGZF block sizes when the file is in that format, and otherwise by scanning
+ * the file for member headers. The scan gives up if the start of the file holds no header other than the first one,
+ * so that a file written as a single member, like most bzip2 files, is not read twice. A scan can report a false
+ * boundary inside compressed data; a segment that does not decode to its exact end fails with a
+ * {@link SegmentDecodeException}, so the caller can fall back to decoding the file sequentially.
+ */
+final class MultiMemberDecompressor {
+  private static final int MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int CHUNKS_PER_SEGMENT = 16;
+  private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+  // the bytes scanned for a second member header before the file is taken to be made of a single member
+  private static final long SCAN_SAMPLE_SIZE = 4L * MIN_SEGMENT_SIZE;
+  private static final int HEADER_LENGTH = 10;
+  private static final byte[] BZIP2_BLOCK_MAGIC = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+  private static final byte[] END_OF_SEGMENT = new byte[0];
+
+  private final FileSystem fileSystem;
+  private final int threads;
+
+  MultiMemberDecompressor(FileSystem fileSystem, int threads) {
+    this.fileSystem = fileSystem;
+    this.threads = threads;
+  }
+
+  /**
+   * Finds the offsets at which the file can be cut into independently decodable segments.
+   *
+   * @return the segment boundaries, starting with 0 and ending with the file length, or an empty list if the file
+   *         is not a gzip or bzip2 file or has a single member
+   */
+  List<Long> findSegments(Path source) throws IOException {
+    long length = fileSystem.getFileStatus(source).getLen();
+    byte[] header = new byte[HEADER_LENGTH];
+    List<Long> members;
+    try (FSDataInputStream input = fileSystem.open(source)) {
+      if (IOUtils.readFully(input, header) < HEADER_LENGTH) {
+        return Collections.emptyList();
+      }
+      if (isGzipHeader(header, 0)) {
+        members = findBgzfBlocks(input, length);
+        if (members == null) {
+          members = scan(source, true);
+        }
+      } else if (isBzip2Header(header, 0)) {
+        members = scan(source, false);
+      } else {
+        return Collections.emptyList();
+      }
+    }
+
+    // group consecutive members so that each segment is worth a task of its own
+    List<Long> segments = new ArrayList<>();
+    segments.add(0L);
+    for (long offset : members) {
+      if (offset - segments.get(segments.size() - 1) >= MIN_SEGMENT_SIZE) {
+        segments.add(offset);
+      }
+    }
+    if (length - segments.get(segments.size() - 1) < MIN_SEGMENT_SIZE && segments.size() > 1) {
+      segments.remove(segments.size() - 1);
+    }
+    if (segments.size() == 1) {
+      return Collections.emptyList();
+    }
+    segments.add(length);
+    return segments;
+  }
+
+  /**
+   * Decompresses the segments of the file concurrently, writing their output in order.
+   *
+   * @param segments the segment boundaries returned by {@link #findSegments(Path)}
+   * @param tracker the tracker the reads of the source and the decoding are recorded in
+   * @throws SegmentDecodeException if a segment could not be decoded on its own. Part of the output may already
+   *                                have been written.
+   */
+  void decompress(Path source, List<Long> segments, OutputStream out, ExpansionTracker tracker) throws IOException {
+    boolean gzip;
+    try (FSDataInputStream input = fileSystem.open(source)) {
+      byte[] header = new byte[HEADER_LENGTH];
+      IOUtils.readFully(input, header);
+      gzip = isGzipHeader(header, 0);
+    }
+
+    int window = threads * 2;
+    ExecutorService executor = Executors.newFixedThreadPool(
+      threads, new ThreadFactoryBuilder().setNameFormat("decompress-member-%d").setDaemon(true).build());
+    Deque<SegmentOutput> pending = new ArrayDeque<>();
+    // the segments make up a single compressed file, which is limited as a whole
+    AtomicLong fileBytes = new AtomicLong();
+    try {
+      int next = 0;
+      while (next < segments.size() - 1 || !pending.isEmpty()) {
+        while (pending.size() < window && next < segments.size() - 1) {
+          SegmentOutput output = new SegmentOutput();
+          long start = segments.get(next);
+          long end = segments.get(next + 1);
+          executor.execute(() -> output.decode(source, start, end, gzip, tracker, fileBytes));
+          pending.add(output);
+          next++;
+        }
+        pending.removeFirst().writeTo(out);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decompressing " + source, e);
+    } finally {
+      executor.shutdownNow();
+      // segments still decoding stop at their next chunk, after which they no longer count towards the tracker
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Follows the block sizes of a BGZF file from block to block.
+   *
+   * @return the block offsets, or null if the file is not in the BGZF format
+   */
+  private List<Long> findBgzfBlocks(FSDataInputStream input, long length) throws IOException {
+    List<Long> blocks = new ArrayList<>();
+    byte[] header = new byte[HEADER_LENGTH + 2];
+    long offset = 0;
+    while (offset < length) {
+      if (length - offset < header.length) {
+        return null;
+      }
+      input.readFully(offset, header);
+      // FEXTRA must be set for the block size subfield to be present
+      if (!isGzipHeader(header, 0) || (header[3] & 0x04) == 0) {
+        return null;
+      }
+      int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+      byte[] extra = new byte[extraLength];
+      input.readFully(offset + header.length, extra);
+      int blockSize = -1;
+      for (int i = 0; i + 4 <= extraLength; ) {
+        int subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+        if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extraLength) {
+          blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+          break;
+        }
+        i += 4 + subfieldLength;
+      }
+      if (blockSize <= 0) {
+        return null;
+      }
+      if (offset > 0) {
+        blocks.add(offset);
+      }
+      offset += blockSize;
+    }
+    return offset == length ? blocks : null;
+  }
+
+  /**
+   * Scans the file for gzip member or bzip2 stream headers, stopping early if none is found after the first
+   * {@link #SCAN_SAMPLE_SIZE} bytes.
+   */
+  private List<Long> scan(Path source, boolean gzip) throws IOException {
+    List<Long> members = new ArrayList<>();
+    byte[] buffer = new byte[SCAN_BUFFER_SIZE + HEADER_LENGTH];
+    try (InputStream input = fileSystem.open(source)) {
+      long base = 0;
+      int carry = 0;
+      while (true) {
+        int read = IOUtils.readFully(input, buffer, carry, SCAN_BUFFER_SIZE);
+        int available = carry + read;
+        for (int i = 0; i + HEADER_LENGTH <= available; i++) {
+          if (base + i > 0 && (gzip ? isGzipHeader(buffer, i) : isBzip2Header(buffer, i))) {
+            members.add(base + i);
+          }
+        }
+        if (read < SCAN_BUFFER_SIZE || (members.isEmpty() && base + available >= SCAN_SAMPLE_SIZE)) {
+          return members;
+        }
+        carry = Math.min(HEADER_LENGTH - 1, available);
+        System.arraycopy(buffer, available - carry, buffer, 0, carry);
+        base += available - carry;
+      }
+    }
+  }
+
+  private static boolean isGzipHeader(byte[] buffer, int offset) {
+    int flags = buffer[offset + 3] & 0xff;
+    int extraFlags = buffer[offset + 8] & 0xff;
+    int os = buffer[offset + 9] & 0xff;
+    return (buffer[offset] & 0xff) == 0x1f && (buffer[offset + 1] & 0xff) == 0x8b && buffer[offset + 2] == 8 &&
+      (flags & 0xe0) == 0 && (extraFlags == 0 || extraFlags == 2 || extraFlags == 4) && (os <= 13 || os == 255);
+  }
+
+  private static boolean isBzip2Header(byte[] buffer, int offset) {
+    return buffer[offset] == 'B' && buffer[offset + 1] == 'Z' && buffer[offset + 2] == 'h' &&
+      buffer[offset + 3] >= '1' && buffer[offset + 3] <= '9' &&
+      Arrays.equals(Arrays.copyOfRange(buffer, offset + 4, offset + HEADER_LENGTH), BZIP2_BLOCK_MAGIC);
+  }
+
+  /**
+   * The decoded output of a segment, handed from the decoding thread to the writer through a bounded queue.
+   */
+  private final class SegmentOutput {
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_SEGMENT);
+    private volatile IOException failure;
+
+    void decode(Path source, long start, long end, boolean gzip, ExpansionTracker tracker, AtomicLong fileBytes) {
+      try (FSDataInputStream input = fileSystem.open(source)) {
+        input.seek(start);
+        InputStream segment = new BufferedInputStream(new BoundedInputStream(tracker.trackSource(input), end - start));
+        try (InputStream decoded = tracker.trackExpanded(gzip ? new GzipCompressorInputStream(segment, true)
+          : new BZip2CompressorInputStream(segment, true), fileBytes)) {
+          while (true) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read = IOUtils.readFully(decoded, chunk);
+            if (read > 0) {
+              chunks.put(read == chunk.length ? chunk : Arrays.copyOf(chunk, read));
+            }
+            if (read < chunk.length) {
+              break;
+            }
+          }
+          if (segment.read() != -1) {
+            throw new IOException("Data left after the last member");
+          }
+        }
+      } catch (InterruptedException e) {
+        // the writer gave up on this segment
+        return;
+      } catch (ExpansionLimits.LimitExceededException e) {
+        // decoding the file sequentially would exceed the limit just the same
+        failure = e;
+      } catch (IOException | RuntimeException e) {
+        failure = new SegmentDecodeException(String.format("Failed to decode %s from offset %d to %d on its own",
+                                                           source, start, end), e);
+      }
+      try {
+        chunks.put(END_OF_SEGMENT);
+      } catch (InterruptedException e) {
+        // the writer gave up on this segment
+      }
+    }
+
+    void writeTo(OutputStream out) throws IOException, InterruptedException {
+      for (byte[] chunk = chunks.take(); chunk != END_OF_SEGMENT; chunk = chunks.take()) {
+        out.write(chunk);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * Thrown when a segment cannot be decoded on its own, which means the file has to be decoded sequentially.
+   */
+  static final class SegmentDecodeException extends IOException {
+    SegmentDecodeException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Codec the expanded files are compressed with as they are written. Every codec writes the format Hadoop reads
+ * through the codec registered for the same extension, so that downstream stages can read the expanded files.
+ */
+enum OutputCodec {
+  /**
+   * Expanded files are written uncompressed.
+   */
+  NONE("none", null, ""),
+  /**
+   * Block compressed files, read by the Hadoop {@code BZip2Codec}. Hadoop input formats can split them.
+   */
+  BZIP2("bzip2", CompressorStreamFactory.BZIP2, ".bz2"),
+  /**
+   * Gzip files, read by the Hadoop {@code GzipCodec}. They can not be split, so each one is read by a single task.
+   */
+  GZIP("gzip", CompressorStreamFactory.GZIP, ".gz"),
+  /**
+   * Zlib streams, read by the Hadoop {@code DefaultCodec}. They can not be split either.
+   */
+  DEFLATE("deflate", CompressorStreamFactory.DEFLATE, ".deflate");
+
+  private final String value;
+  private final String compressorName;
+  private final String extension;
+
+  OutputCodec(String value, @Nullable String compressorName, String extension) {
+    this.value = value;
+    this.compressorName = compressorName;
+    this.extension = extension;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Returns the extension appended to the names of the files written with this codec.
+   */
+  String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Wraps the stream so that the data written to it is compressed with this codec.
+   */
+  OutputStream compress(OutputStream out) throws IOException {
+    if (compressorName == null) {
+      return out;
+    }
+    try {
+      return new CompressorStreamFactory().createCompressorOutputStream(compressorName, out);
+    } catch (CompressorException e) {
+      throw new IOException(String.format("Failed to create a %s compressor", value), e);
+    }
+  }
+
+  /**
+   * Returns the codec with the given value, ignoring case, or null if there is no such codec.
+   */
+  @Nullable
+  static OutputCodec fromValue(String value) {
+    for (OutputCodec codec : values()) {
+      if (codec.value.equalsIgnoreCase(value)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Digest computed over the contents of the expanded files as they are written.
+ */
+enum OutputDigest {
+  /**
+   * Cheap enough to be computed on the thread writing the output.
+   */
+  CRC32C("crc32c", Hashing.crc32c(), false),
+  MD5("md5", Hashing.md5(), true),
+  SHA256("sha-256", Hashing.sha256(), true);
+
+  private final String value;
+  private final HashFunction function;
+  private final boolean expensive;
+
+  OutputDigest(String value, HashFunction function, boolean expensive) {
+    this.value = value;
+    this.function = function;
+    this.expensive = expensive;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  HashFunction getFunction() {
+    return function;
+  }
+
+  /**
+   * Returns whether the digest costs enough to be computed on a thread of its own rather than the writing thread.
+   */
+  boolean isExpensive() {
+    return expensive;
+  }
+
+  /**
+   * Formats a digest in hex. Checksums are formatted as the number they are, like the tools that print them.
+   */
+  String format(HashCode hash) {
+    return this == CRC32C ? String.format("%08x", hash.asInt()) : hash.toString();
+  }
+
+  /**
+   * Returns the digest with the given value, ignoring case, or null if there is no such digest.
+   */
+  @Nullable
+  static OutputDigest fromValue(String value) {
+    for (OutputDigest digest : values()) {
+      if (digest.value.equalsIgnoreCase(value)) {
+        return digest;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parses a comma separated list of digests, in the order they are listed and without duplicates.
+   *
+   * @throws IllegalArgumentException if a value is not a digest
+   */
+  static List<OutputDigest> parseList(@Nullable String values) {
+    if (values == null) {
+      return Collections.emptyList();
+    }
+    List<OutputDigest> digests = new ArrayList<>();
+    for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(values)) {
+      OutputDigest digest = fromValue(value);
+      if (digest == null) {
+        throw new IllegalArgumentException(String.format("Unknown digest '%s'", value));
+      }
+      if (!digests.contains(digest)) {
+        digests.add(digest);
+      }
+    }
+    return digests;
+  }
+}
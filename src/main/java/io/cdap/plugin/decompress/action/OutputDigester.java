@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Output stream that computes the {@link OutputDigest}s of the data written to it. Cheap digests are updated on the
+ * writing thread, while expensive ones are handed over to a thread of their own through an
+ * {@link AsyncOutputStream}, so that hashing overlaps with decompressing and writing the output.
+ */
+final class OutputDigester extends OutputStream {
+  private final List<OutputDigest> digests;
+  private final Hasher[] hashers;
+  private final List<Hasher> inline = new ArrayList<>();
+  private final OutputStream offloaded;
+  private List<String> values;
+
+  /**
+   * @param executor the executor the expensive digests are computed on, with the chunk size, queue depth and
+   *                 number of buffers of an {@link AsyncOutputStream}
+   */
+  OutputDigester(List<OutputDigest> digests, ExecutorService executor, int chunkSize, int depth, int buffers) {
+    this.digests = digests;
+    this.hashers = new Hasher[digests.size()];
+    List<Hasher> expensive = new ArrayList<>();
+    for (int i = 0; i < hashers.length; i++) {
+      hashers[i] = digests.get(i).getFunction().newHasher();
+      (digests.get(i).isExpensive() ? expensive : inline).add(hashers[i]);
+    }
+    this.offloaded = expensive.isEmpty() ? null
+      : new AsyncOutputStream(new HashingOutputStream(expensive), executor, chunkSize, depth, buffers);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    for (Hasher hasher : inline) {
+      hasher.putBytes(b, off, len);
+    }
+    if (offloaded != null) {
+      offloaded.write(b, off, len);
+    }
+  }
+
+  /**
+   * Waits for the digests computed on another thread, then completes all the digests.
+   */
+  @Override
+  public void close() throws IOException {
+    if (values != null) {
+      return;
+    }
+    if (offloaded != null) {
+      offloaded.close();
+    }
+    List<String> values = new ArrayList<>(hashers.length);
+    for (int i = 0; i < hashers.length; i++) {
+      values.add(digests.get(i).format(hashers[i].hash()));
+    }
+    this.values = values;
+  }
+
+  /**
+   * Returns the digests in hex, in the order they were given. Can only be called once the digester is closed.
+   */
+  List<String> getDigests() {
+    Preconditions.checkState(values != null, "Digests are only complete once the digester is closed");
+    return values;
+  }
+
+  /**
+   * Updates hashers with the data written to it, which is not written anywhere else.
+   */
+  private static final class HashingOutputStream extends OutputStream {
+    private final List<Hasher> hashers;
+
+    private HashingOutputStream(List<Hasher> hashers) {
+      this.hashers = hashers;
+    }
+
+    @Override
+    public void write(int b) {
+      for (Hasher hasher : hashers) {
+        hasher.putByte((byte) b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      for (Hasher hasher : hashers) {
+        hasher.putBytes(b, off, len);
+      }
+    }
+  }
+}
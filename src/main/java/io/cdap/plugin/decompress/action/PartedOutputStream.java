@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Output stream that rolls the data written to it over numbered part files {@code part-NNNNN} in a folder. A part is
+ * cut after the first newline once it reaches the target size, so that no line spans two parts, and data without
+ * newlines ends up in a single part.
+ *
+ * A complete part is closed on a background thread while the next part is being written. On object stores, closing
+ * is when the upload of a part completes, so the uploads of several parts overlap with each other and with the
+ * writes of the next part. The number of parts closing at the same time is bounded, which bounds the memory held by
+ * stores that buffer a part until it is closed.
+ */
+final class PartedOutputStream extends OutputStream {
+
+  /**
+   * Creates the outputs the parts are written to.
+   */
+  interface Parts {
+    ExpansionTracker.TrackedOutputStream create(Path path) throws IOException;
+  }
+
+  private final Path folder;
+  private final long partSize;
+  private final Parts parts;
+  private final ExecutorService executor;
+  private final Semaphore closingParts;
+  private final List<ExpansionTracker.TrackedOutputStream> created = new ArrayList<>();
+  private final List<Future<?>> closes = new ArrayList<>();
+  private ExpansionTracker.TrackedOutputStream part;
+  private long partLength;
+  private volatile IOException closeFailure;
+  private boolean discarded;
+  private boolean closed;
+
+  /**
+   * @param maxClosingParts the maximum number of parts closing in the background at the same time
+   */
+  PartedOutputStream(Path folder, long partSize, Parts parts, ExecutorService executor, int maxClosingParts) {
+    this.folder = folder;
+    this.partSize = partSize;
+    this.parts = parts;
+    this.executor = executor;
+    this.closingParts = new Semaphore(maxClosingParts);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (part == null) {
+        part = parts.create(new Path(folder, String.format("%s%05d", EntryCoalescer.PART_PREFIX, created.size())));
+        created.add(part);
+      }
+      int length;
+      if (partLength < partSize) {
+        length = (int) Math.min(len, partSize - partLength);
+      } else {
+        // past the target size, the part ends with the next newline
+        int newline = indexOfNewline(b, off, len);
+        length = newline < 0 ? len : newline - off + 1;
+      }
+      part.write(b, off, length);
+      partLength += length;
+      off += length;
+      len -= length;
+      if (partLength >= partSize && b[off - 1] == '\n') {
+        roll();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (part != null) {
+      part.flush();
+    }
+  }
+
+  /**
+   * Excludes all the parts from the tracker once they are closed, for output that is abandoned and written again.
+   */
+  void discard() {
+    discarded = true;
+  }
+
+  /**
+   * Closes the current part and waits for the parts closing in the background.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    IOException failure = null;
+    try {
+      if (part != null) {
+        part.close();
+        part = null;
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    for (Future<?> close : closes) {
+      try {
+        close.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          failure = new InterruptedIOException("Interrupted while closing the parts of " + folder);
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+            : new IOException("Failed to close a part of " + folder, e.getCause());
+        }
+      }
+    }
+    if (discarded) {
+      for (ExpansionTracker.TrackedOutputStream output : created) {
+        output.discard();
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Hands the current part over to a background thread to be closed, waiting first if too many parts are closing.
+   */
+  private void roll() throws IOException {
+    if (closeFailure != null) {
+      // stop writing parts that cannot all be completed
+      throw closeFailure;
+    }
+    ExpansionTracker.TrackedOutputStream complete = part;
+    part = null;
+    partLength = 0;
+    try {
+      closingParts.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      complete.close();
+      throw new InterruptedIOException("Interrupted while waiting for the parts of " + folder + " to close");
+    }
+    closes.add(executor.submit(() -> {
+      try {
+        complete.close();
+        return null;
+      } catch (IOException e) {
+        closeFailure = e;
+        throw e;
+      } finally {
+        closingParts.release();
+      }
+    }));
+  }
+
+  private static int indexOfNewline(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      if (b[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manifest of the source files that were already expanded, used to skip them in later runs.
+ *
+ * The manifest is a text file with one line per source file holding its length, modification time, a fingerprint
+ * of its outputs and its path, separated by tabs. Files expanded during a run are appended to a log next to the
+ * manifest, in the same format, which is flushed periodically. The log is folded into the manifest once the run
+ * ends, or when the next run loads the manifest if the run crashed, so the manifest is rewritten once per run
+ * rather than as files are expanded. The manifest is rewritten through a temporary file which then replaces it, and
+ * the log is only removed once that is done, so a crash at any point leaves every recorded file in either of them.
+ */
+final class ProcessedFileManifest implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ProcessedFileManifest.class);
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String LOG_SUFFIX = ".log";
+  private static final int FLUSH_EVERY_FILES = 100;
+  private static final long FLUSH_EVERY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final FileSystem fileSystem;
+  private final Path path;
+  private final Map<String, Entry> entries;
+  private final FSDataOutputStream logStream;
+  private final Writer log;
+  private int unflushedFiles;
+  private long lastFlushTime;
+
+  private ProcessedFileManifest(FileSystem fileSystem, Path path, Map<String, Entry> entries,
+                                FSDataOutputStream logStream) {
+    this.fileSystem = fileSystem;
+    this.path = path;
+    this.entries = entries;
+    this.logStream = logStream;
+    this.log = new BufferedWriter(new OutputStreamWriter(logStream, StandardCharsets.UTF_8));
+    this.lastFlushTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Loads the manifest at the given path, along with the log left by a run that did not finish, and starts a new
+   * log. A missing manifest is treated as empty.
+   */
+  static ProcessedFileManifest load(FileSystem fileSystem, Path path) throws IOException {
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    Path temp = path.suffix(TEMP_SUFFIX);
+    // the temporary file is the latest manifest if the run crashed after removing the previous one, and may be
+    // truncated if it crashed while writing the first one, in which case the log holds what is missing
+    Path existing = fileSystem.exists(path) ? path : fileSystem.exists(temp) ? temp : null;
+    if (existing != null) {
+      read(fileSystem, existing, entries);
+    }
+    Path logPath = path.suffix(LOG_SUFFIX);
+    if (fileSystem.exists(logPath)) {
+      read(fileSystem, logPath, entries);
+      write(fileSystem, path, entries);
+      fileSystem.delete(logPath, false);
+    }
+    LOG.debug("Loaded {} processed files from manifest {}", entries.size(), path);
+    return new ProcessedFileManifest(fileSystem, path, entries, fileSystem.create(logPath, true));
+  }
+
+  /**
+   * Checks whether the file was expanded before and has not changed since.
+   */
+  boolean contains(FileStatus file) {
+    Entry entry = entries.get(file.getPath().toString());
+    return entry != null && entry.length == file.getLen() && entry.modificationTime == file.getModificationTime();
+  }
+
+  /**
+   * Records that the file was expanded, appending it to the log. The log is flushed if enough time or files went by
+   * since it was last flushed.
+   */
+  void record(FileStatus file, String fingerprint) throws IOException {
+    Entry entry = new Entry(file.getLen(), file.getModificationTime(), fingerprint);
+    entries.put(file.getPath().toString(), entry);
+    synchronized (log) {
+      log.write(format(file.getPath().toString(), entry));
+      unflushedFiles++;
+      if (unflushedFiles >= FLUSH_EVERY_FILES || System.currentTimeMillis() - lastFlushTime >= FLUSH_EVERY_MILLIS) {
+        log.flush();
+        logStream.hflush();
+        unflushedFiles = 0;
+        lastFlushTime = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Folds the log into the manifest and removes it.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (log) {
+      log.close();
+    }
+    write(fileSystem, path, new HashMap<>(entries));
+    fileSystem.delete(path.suffix(LOG_SUFFIX), false);
+  }
+
+  /**
+   * Adds the files listed in the given manifest or log to the entries. Malformed lines, such as the last line of a
+   * file that was cut short by a crash, are ignored.
+   */
+  private static void read(FileSystem fileSystem, Path path, Map<String, Entry> entries) throws IOException {
+    try (BufferedReader reader = new BufferedReader(
+      new InputStreamReader(fileSystem.open(path), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 4);
+        try {
+          if (fields.length == 4) {
+            entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+            continue;
+          }
+        } catch (NumberFormatException e) {
+          // reported below
+        }
+        LOG.warn("Ignoring malformed line in manifest {}: {}", path, line);
+      }
+    }
+  }
+
+  private static void write(FileSystem fileSystem, Path path, Map<String, Entry> entries) throws IOException {
+    Path temp = path.suffix(TEMP_SUFFIX);
+    try (Writer writer = new BufferedWriter(
+      new OutputStreamWriter(fileSystem.create(temp, true), StandardCharsets.UTF_8))) {
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writer.write(format(entry.getKey(), entry.getValue()));
+      }
+    }
+    if (fileSystem.exists(path) && !fileSystem.delete(path, false)) {
+      throw new IOException("Failed to replace manifest " + path);
+    }
+    if (!fileSystem.rename(temp, path)) {
+      throw new IOException(String.format("Failed to rename %s to %s", temp, path));
+    }
+  }
+
+  private static String format(String path, Entry entry) {
+    return String.format("%d\t%d\t%s\t%s\n", entry.length, entry.modificationTime, entry.fingerprint, path);
+  }
+
+  /**
+   * What is known about a processed source file.
+   */
+  private static final class Entry {
+    private final long length;
+    private final long modificationTime;
+    private final String fingerprint;
+
+    private Entry(long length, long modificationTime, String fingerprint) {
+      this.length = length;
+      this.modificationTime = modificationTime;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.collect.Iterators;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages the output of each source file in a hidden {@code _temporary} directory under the destination, and
+ * commits it by renaming the staged files to their final paths once the whole source file is expanded. Readers of
+ * the destination never see partial files, and a {@code _SUCCESS} marker is written once every file is committed.
+ *
+ * Names starting with an underscore are ignored by Hadoop input formats, so neither the staging directory nor the
+ * marker are read as data.
+ *
+ * Every committer stages into an attempt directory of its own under {@code _temporary}, so that several runs or
+ * stages can write to the same destination at the same time. A committer only ever deletes its own attempt
+ * directory, along with attempt directories that were not modified for a day, which are left over by runs that
+ * crashed. An attempt directory in use is modified every time the output of a source file is staged in it.
+ */
+final class StagedCommitter {
+  static final String TEMPORARY = "_temporary";
+  static final String SUCCESS = "_SUCCESS";
+
+  private static final Logger LOG = LoggerFactory.getLogger(StagedCommitter.class);
+  private static final int COMMIT_BATCH_SIZE = 256;
+  private static final int COMMIT_PARALLELISM = 8;
+  private static final long STALE_ATTEMPT_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private final FileSystem fileSystem;
+  private final Path dest;
+  private final boolean destIsDirectory;
+  private final Path base;
+  private final Path attempt;
+  private final AtomicLong stagings = new AtomicLong();
+
+  /**
+   * Creates a committer for the given destination, which must already exist if it is a directory.
+   */
+  StagedCommitter(FileSystem fileSystem, Path dest) throws IOException {
+    this.fileSystem = fileSystem;
+    this.dest = dest;
+    this.destIsDirectory = fileSystem.isDirectory(dest);
+    this.base = destIsDirectory ? dest : dest.getParent();
+    this.attempt = new Path(new Path(base, TEMPORARY), UUID.randomUUID().toString());
+  }
+
+  /**
+   * Removes the marker of a previous run, and the attempt directories left over by runs that crashed.
+   */
+  void setup() throws IOException {
+    fileSystem.delete(new Path(base, SUCCESS), false);
+    Path temporary = attempt.getParent();
+    FileStatus[] attempts;
+    try {
+      attempts = fileSystem.listStatus(temporary);
+    } catch (FileNotFoundException e) {
+      return;
+    }
+    long staleBefore = System.currentTimeMillis() - STALE_ATTEMPT_MILLIS;
+    for (FileStatus stale : attempts) {
+      if (stale.getModificationTime() < staleBefore && !stale.getPath().getName().equals(attempt.getName())) {
+        LOG.info("Removing staging directory {} left over by a previous run", stale.getPath());
+        fileSystem.delete(stale.getPath(), true);
+      }
+    }
+  }
+
+  /**
+   * Starts staging the output of a source file.
+   */
+  Staging stage() throws IOException {
+    Path dir = new Path(attempt, Long.toString(stagings.incrementAndGet()));
+    fileSystem.mkdirs(dir);
+    return new Staging(dir);
+  }
+
+  /**
+   * Removes the staging directory of this run, and writes the marker if the run succeeded.
+   */
+  void finish(boolean succeeded) throws IOException {
+    try {
+      fileSystem.delete(attempt, true);
+      Path temporary = attempt.getParent();
+      if (fileSystem.listStatus(temporary).length == 0) {
+        fileSystem.delete(temporary, false);
+      }
+    } catch (FileNotFoundException e) {
+      // another committer of the same run already removed the staging directory
+    } catch (IOException e) {
+      LOG.warn("Failed to clean up staging directory {}", attempt, e);
+    }
+    if (succeeded) {
+      fileSystem.create(new Path(base, SUCCESS), true).close();
+    }
+  }
+
+  /**
+   * The staged output of a single source file.
+   */
+  final class Staging {
+    private final Path dir;
+    private boolean committed;
+
+    private Staging(Path dir) {
+      this.dir = dir;
+    }
+
+    /**
+     * Returns the destination to expand the source file into, in place of the configured destination.
+     */
+    Path getDestination() {
+      return destIsDirectory ? dir : new Path(dir, dest.getName());
+    }
+
+    /**
+     * Renames the staged files to their final paths, in parallel batches, replacing the files already there. Empty
+     * directories extracted from archives are created at their final paths. Part files of a previous run that the
+     * staged part files do not replace are deleted first.
+     */
+    void commit(ExpansionTracker tracker) throws IOException {
+      long start = System.nanoTime();
+      List<FileStatus> staged = new ArrayList<>();
+      collect(dir, staged);
+      String prefix = dir.toUri().getPath() + "/";
+      removeStaleParts(staged, prefix);
+      Set<Path> directories = ConcurrentHashMap.newKeySet();
+      Iterator<BoundedTaskRunner.Task> tasks = Iterators.transform(
+        Iterators.partition(staged.iterator(), COMMIT_BATCH_SIZE), batch -> () -> {
+          for (FileStatus file : batch) {
+            Path target = new Path(base, file.getPath().toUri().getPath().substring(prefix.length()));
+            if (file.isDirectory()) {
+              fileSystem.mkdirs(target);
+            } else {
+              rename(file.getPath(), target, directories);
+            }
+          }
+        });
+      int batches = (staged.size() + COMMIT_BATCH_SIZE - 1) / COMMIT_BATCH_SIZE;
+      try {
+        BoundedTaskRunner.run("commit", Math.min(batches, COMMIT_PARALLELISM), tasks);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(String.format("Failed to commit the files staged in %s", dir), e);
+      }
+      committed = true;
+      fileSystem.delete(dir, true);
+      tracker.recordWrite(System.nanoTime() - start);
+    }
+
+    /**
+     * Deletes the numbered part files that a previous run wrote next to the part files being committed, and that
+     * are not replaced by them, so that readers of the destination never see the parts of two runs mixed.
+     */
+    private void removeStaleParts(List<FileStatus> staged, String prefix) throws IOException {
+      Set<Path> targets = new HashSet<>();
+      Set<Path> folders = new HashSet<>();
+      for (FileStatus file : staged) {
+        Path target = new Path(base, file.getPath().toUri().getPath().substring(prefix.length()));
+        targets.add(target);
+        if (!file.isDirectory() && EntryCoalescer.isPart(target.getName())) {
+          folders.add(target.getParent());
+        }
+      }
+      for (Path folder : folders) {
+        FileStatus[] existing;
+        try {
+          existing = fileSystem.listStatus(folder);
+        } catch (FileNotFoundException e) {
+          continue;
+        }
+        for (FileStatus file : existing) {
+          Path path = new Path(folder, file.getPath().getName());
+          if (!file.isDirectory() && EntryCoalescer.isPart(path.getName()) && !targets.contains(path)) {
+            LOG.debug("Removing part file {} left by a previous run", file.getPath());
+            fileSystem.delete(file.getPath(), false);
+          }
+        }
+      }
+    }
+
+    /**
+     * Deletes the staged files if they were not committed.
+     */
+    void abort() {
+      if (committed) {
+        return;
+      }
+      try {
+        fileSystem.delete(dir, true);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete staging directory {}", dir, e);
+      }
+    }
+
+    private void rename(Path staged, Path target, Set<Path> directories) throws IOException {
+      if (directories.add(target.getParent())) {
+        fileSystem.mkdirs(target.getParent());
+      }
+      if (fileSystem.exists(target)) {
+        fileSystem.delete(target, false);
+      }
+      if (!fileSystem.rename(staged, target)) {
+        throw new IOException(String.format("Failed to commit %s to %s", staged, target));
+      }
+    }
+  }
+
+  /**
+   * Lists the files under the directory, and the directories that have nothing under them.
+   */
+  private void collect(Path dir, List<FileStatus> staged) throws IOException {
+    for (FileStatus child : fileSystem.listStatus(dir)) {
+      if (child.isDirectory()) {
+        int size = staged.size();
+        collect(child.getPath(), staged);
+        if (staged.size() == size) {
+          staged.add(child);
+        }
+      } else {
+        staged.add(child);
+      }
+    }
+  }
+}
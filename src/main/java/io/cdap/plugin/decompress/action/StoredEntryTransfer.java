@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+
+/**
+ * Copies the entries an archive stores without compression straight from the source file to their output with
+ * {@link FileChannel#transferTo}, so that their bytes never go through the heap. This only works when the archive
+ * is on the local file system, which includes NFS mounts, and is read from its first byte.
+ *
+ * Tar entries are located from the number of bytes the archive stream consumed when it returned their header, and
+ * ZIP entries stored with the {@code STORED} method from the data offset found in their local header. Transferred
+ * tar entries are then skipped by the archive stream, which seeks over them instead of reading them. The data of a ZIP
+ * entry is checked against the CRC in its header before it is copied, since it never goes through a checking stream.
+ */
+final class StoredEntryTransfer implements Closeable {
+  static final long NOT_STORED = -1;
+  static final long NO_CRC = -1;
+
+  private static final int CRC_BUFFER_SIZE = 64 * 1024;
+
+  private final LocalFileSystem fileSystem;
+  private final FileChannel source;
+
+  private StoredEntryTransfer(LocalFileSystem fileSystem, FileChannel source) {
+    this.fileSystem = fileSystem;
+    this.source = source;
+  }
+
+  /**
+   * Opens the source for transfers, or returns null if it is not on the local file system.
+   */
+  @Nullable
+  static StoredEntryTransfer open(FileSystem fileSystem, Path source) throws IOException {
+    if (!(fileSystem instanceof LocalFileSystem)) {
+      return null;
+    }
+    LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+    return new StoredEntryTransfer(localFileSystem, FileChannel.open(localFileSystem.pathToFile(source).toPath(),
+                                                                     StandardOpenOption.READ));
+  }
+
+  /**
+   * Returns the offset of the data of a tar entry that was just returned by the stream, or {@link #NOT_STORED} if
+   * the entry is not a regular file stored contiguously.
+   */
+  static long getDataOffset(ArchiveInputStream input, ArchiveEntry entry) {
+    if (!(input instanceof TarArchiveInputStream) || !(entry instanceof TarArchiveEntry)) {
+      return NOT_STORED;
+    }
+    TarArchiveEntry tarEntry = (TarArchiveEntry) entry;
+    return tarEntry.isFile() && !tarEntry.isSparse() ? input.getBytesRead() : NOT_STORED;
+  }
+
+  /**
+   * Returns the offset of the data of a ZIP entry read from the central directory, or {@link #NOT_STORED} if the
+   * entry is compressed or its data offset is not known.
+   */
+  static long getDataOffset(ZipArchiveEntry entry) {
+    if (entry.isDirectory() || entry.getMethod() != ZipArchiveEntry.STORED || entry.getSize() < 0) {
+      return NOT_STORED;
+    }
+    return entry.getDataOffset() < 0 ? NOT_STORED : entry.getDataOffset();
+  }
+
+  /**
+   * Copies the given range of the source file to a new file at the given path, replacing any file already there.
+   *
+   * @param crc the CRC-32 the range must have, or {@link #NO_CRC} to copy it unchecked
+   */
+  void transfer(long offset, long length, long crc, Path path, ExpansionTracker tracker) throws IOException {
+    tracker.checkTransfer(length);
+    long start = System.nanoTime();
+    if (crc != NO_CRC) {
+      checkCrc(offset, length, crc, path);
+    }
+    // deleting through the file system also removes the checksum file of a previous output
+    fileSystem.delete(path, false);
+    fileSystem.mkdirs(path.getParent());
+    try (FileChannel out = FileChannel.open(fileSystem.pathToFile(path).toPath(), StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long transferred = 0;
+      while (transferred < length) {
+        long count = source.transferTo(offset + transferred, length - transferred, out);
+        if (count <= 0) {
+          throw new EOFException(String.format("Unexpected end of file while copying %d bytes at offset %d to %s",
+                                               length, offset, path));
+        }
+        transferred += count;
+      }
+    }
+    tracker.recordTransfer(path, length, System.nanoTime() - start);
+  }
+
+  /**
+   * Computes the CRC-32 of the given range of the source file, reading it into a direct buffer so that it does not go
+   * through the heap either. This also brings the range into the page cache for the transfer that follows.
+   */
+  private void checkCrc(long offset, long length, long expected, Path path) throws IOException {
+    CRC32 crc = new CRC32();
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(length, CRC_BUFFER_SIZE));
+    long end = offset + length;
+    for (long position = offset; position < end;) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      int count = source.read(buffer, position);
+      if (count < 0) {
+        throw new EOFException(String.format("Unexpected end of file while reading %d bytes at offset %d for %s",
+                                             length, offset, path));
+      }
+      buffer.flip();
+      crc.update(buffer);
+      position += count;
+    }
+    if (crc.getValue() != expected) {
+      throw new ZipException(String.format("CRC mismatch in the stored entry for %s: expected %08x, got %08x", path,
+                                           expected, crc.getValue()));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+}
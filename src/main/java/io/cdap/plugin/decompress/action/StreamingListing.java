@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Lists the files of a source directory or glob lazily, through the remote iterators of
+ * {@link FileSystem#listFiles(Path, boolean)}, so that files can be expanded while the rest of the source is still
+ * being listed and the whole listing is never held in memory.
+ *
+ * Files are handed out from a bounded window of listed files, largest first, so that large files start early and do
+ * not end up running alone at the end of a run.
+ */
+final class StreamingListing {
+  private static final Comparator<FileStatus> LARGEST_FIRST =
+    Comparator.comparingLong(FileStatus::getLen).reversed();
+
+  private StreamingListing() {
+  }
+
+  /**
+   * Lists the files of the source.
+   *
+   * @param source a directory, a file or a glob
+   * @param filter filter applied to the files that are found
+   * @param recursive whether to list the files in subdirectories, and in the directories matching the glob, too
+   * @param window the number of listed files to pick the largest one from
+   * @return the files, which throws an {@link UncheckedIOException} if listing fails
+   */
+  static Iterator<FileStatus> list(FileSystem fileSystem, Path source, PathFilter filter, boolean recursive,
+                                   int window) throws IOException {
+    Deque<Path> roots = new ArrayDeque<>();
+    if (fileSystem.exists(source)) {
+      roots.add(source);
+    } else {
+      FileStatus[] matches = fileSystem.globStatus(source);
+      if (matches != null) {
+        for (FileStatus match : matches) {
+          // like the files of a directory, directories matching the glob are only listed when listing recursively
+          if (recursive || !match.isDirectory()) {
+            roots.add(match.getPath());
+          }
+        }
+      }
+    }
+    return new LargestFirstIterator(new ListingIterator(fileSystem, roots, filter, recursive), window);
+  }
+
+  /**
+   * Iterates over the files under each root in turn.
+   */
+  private static final class ListingIterator extends AbstractIterator<FileStatus> {
+    private final FileSystem fileSystem;
+    private final Deque<Path> roots;
+    private final PathFilter filter;
+    private final boolean recursive;
+    private RemoteIterator<LocatedFileStatus> files;
+
+    private ListingIterator(FileSystem fileSystem, Deque<Path> roots, PathFilter filter, boolean recursive) {
+      this.fileSystem = fileSystem;
+      this.roots = roots;
+      this.filter = filter;
+      this.recursive = recursive;
+    }
+
+    @Override
+    protected FileStatus computeNext() {
+      try {
+        while (true) {
+          if (files != null && files.hasNext()) {
+            LocatedFileStatus file = files.next();
+            if (filter.accept(file.getPath())) {
+              return file;
+            }
+          } else if (!roots.isEmpty()) {
+            files = fileSystem.listFiles(roots.poll(), recursive);
+          } else {
+            return endOfData();
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Reorders files so that the largest of the next {@code window} files comes first.
+   */
+  private static final class LargestFirstIterator extends AbstractIterator<FileStatus> {
+    private final Iterator<FileStatus> files;
+    private final PriorityQueue<FileStatus> pending = new PriorityQueue<>(LARGEST_FIRST);
+    private final int window;
+
+    private LargestFirstIterator(Iterator<FileStatus> files, int window) {
+      this.files = files;
+      this.window = window;
+    }
+
+    @Override
+    protected FileStatus computeNext() {
+      while (pending.size() < window && files.hasNext()) {
+        pending.add(files.next());
+      }
+      return pending.isEmpty() ? endOfData() : pending.poll();
+    }
+  }
+}
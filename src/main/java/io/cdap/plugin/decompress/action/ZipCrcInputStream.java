@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream over the data of a ZIP entry that checks the CRC-32 of the data against the CRC recorded in the
+ * archive once the end of the entry is reached. Commons Compress does not check it by itself.
+ *
+ * The CRC is looked up at the end of the entry rather than when the stream is created. The CRC of an entry streamed
+ * from an archive with a data descriptor is only known once the archive stream moves to the next entry, which is when
+ * {@link #checkDescriptor()} checks it. Closing the stream does not close the underlying stream, which may be the
+ * archive stream the next entries are read from.
+ */
+final class ZipCrcInputStream extends FilterInputStream {
+  private final ZipArchiveEntry entry;
+  private final CRC32 crc = new CRC32();
+  private boolean ended;
+  private boolean checked;
+
+  ZipCrcInputStream(InputStream in, ZipArchiveEntry entry) {
+    super(in);
+    this.entry = entry;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int read = in.read();
+    if (read == -1) {
+      check();
+    } else {
+      crc.update(read);
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = in.read(b, off, len);
+    if (read == -1) {
+      check();
+    } else {
+      crc.update(b, off, read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // skipped data would be missing from the CRC
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    int read = read(buffer, 0, buffer.length);
+    return Math.max(read, 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() {
+    // the entry ends where the archive stream moves to the next entry
+  }
+
+  /**
+   * Checks the CRC of an entry that was read to its end before the archive stream read the CRC from its data
+   * descriptor. Entries that were not read to their end are not checked.
+   */
+  void checkDescriptor() throws ZipException {
+    if (ended) {
+      check();
+    }
+  }
+
+  private void check() throws ZipException {
+    ended = true;
+    long expected = entry.getCrc();
+    if (checked || expected == -1) {
+      return;
+    }
+    checked = true;
+    if (expected != crc.getValue()) {
+      throw new ZipException(String.format("CRC mismatch in entry %s: expected %08x, got %08x", entry.getName(),
+                                           expected, crc.getValue()));
+    }
+  }
+}
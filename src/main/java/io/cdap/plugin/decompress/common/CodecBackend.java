@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implementation used to decompress compressed files.
+ */
+public enum CodecBackend {
+  /**
+   * Pure Java decompression through Apache Commons Compress. The format is detected from the file contents.
+   */
+  COMMONS_COMPRESS("commons-compress"),
+  /**
+   * Hadoop {@code CompressionCodec}s, which use the native zlib and bzip2 libraries when they are available. The
+   * codec is chosen from the file extension.
+   */
+  HADOOP_NATIVE("hadoop-native"),
+  /**
+   * Hadoop codecs for files whose codec has a native implementation loaded, Commons Compress for everything else.
+   */
+  AUTO("auto");
+
+  private final String value;
+
+  CodecBackend(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Returns the backend with the given value, ignoring case, or null if there is no such backend.
+   */
+  @Nullable
+  public static CodecBackend fromValue(String value) {
+    for (CodecBackend backend : values()) {
+      if (backend.value.equalsIgnoreCase(value)) {
+        return backend;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.bzip2.Bzip2Factory;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens decompressing streams over compressed files using the configured {@link CodecBackend}. It is shared by the
+ * Decompress action and the batch source, so that both decompress files the same way.
+ */
+public final class DecompressingStreamFactory {
+  private static final Logger LOG = LoggerFactory.getLogger(DecompressingStreamFactory.class);
+
+  private final CodecBackend backend;
+  private final Configuration conf;
+  private final CompressionCodecFactory codecFactory;
+  private final boolean decompressConcatenated;
+  private final Map<Class<?>, Boolean> nativeCodecs = new ConcurrentHashMap<>();
+  private final Set<String> loggedBackends = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param decompressConcatenated whether Commons Compress reads the streams concatenated in a file up to its end,
+   *                               rather than only the first; Hadoop codecs always read them all
+   */
+  public DecompressingStreamFactory(CodecBackend backend, Configuration conf, boolean decompressConcatenated) {
+    this.backend = backend;
+    this.conf = conf;
+    this.codecFactory = new CompressionCodecFactory(conf);
+    this.decompressConcatenated = decompressConcatenated;
+  }
+
+  /**
+   * Returns a stream that decompresses the given compressed stream.
+   *
+   * @param source the file being read, used to pick a Hadoop codec from its extension
+   * @param input the compressed contents of the file, which must support mark and reset
+   */
+  public InputStream open(Path source, InputStream input) throws CompressorException, IOException {
+    CompressionCodec codec = backend == CodecBackend.COMMONS_COMPRESS ? null : codecFactory.getCodec(source);
+    if (codec != null && (backend == CodecBackend.HADOOP_NATIVE || isNative(codec))) {
+      logBackend(source, String.format("the %s backend with %s%s", CodecBackend.HADOOP_NATIVE.getValue(),
+                                       codec.getClass().getSimpleName(),
+                                       isNative(codec) ? "" : " (native library not loaded)"));
+      Decompressor decompressor = CodecPool.getDecompressor(codec);
+      return new FilterInputStream(codec.createInputStream(input, decompressor)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            CodecPool.returnDecompressor(decompressor);
+          }
+        }
+      };
+    }
+    if (backend == CodecBackend.HADOOP_NATIVE) {
+      logBackend(source, String.format("the %s backend, since no Hadoop codec matches the extension",
+                                       CodecBackend.COMMONS_COMPRESS.getValue()));
+    } else {
+      logBackend(source, String.format("the %s backend", CodecBackend.COMMONS_COMPRESS.getValue()));
+    }
+    return new CompressorStreamFactory(decompressConcatenated).createCompressorInputStream(input);
+  }
+
+  /**
+   * Logs the backend a file is decompressed with, at info level the first time the backend is used and at debug
+   * level after that, since archives of compressed entries open a stream per entry.
+   */
+  private void logBackend(Path source, String backendDescription) {
+    if (loggedBackends.add(backendDescription)) {
+      LOG.info("Decompressing {} using {}, other files using it are logged at debug level", source,
+               backendDescription);
+    } else {
+      LOG.debug("Decompressing {} using {}", source, backendDescription);
+    }
+  }
+
+  /**
+   * Checks whether the native library backing the given codec is loaded.
+   */
+  private boolean isNative(CompressionCodec codec) {
+    return nativeCodecs.computeIfAbsent(codec.getClass(), codecClass -> {
+      if (!NativeCodeLoader.isNativeCodeLoaded()) {
+        return false;
+      }
+      if (codec instanceof BZip2Codec) {
+        return Bzip2Factory.isNativeBzip2Loaded(conf);
+      }
+      // DefaultCodec and GzipCodec are both backed by zlib
+      return codec instanceof DefaultCodec && ZlibFactory.isNativeZlibLoaded(conf);
+    });
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Selects the archive entries to read by name, with an include pattern and an exclude pattern that both have to
+ * match the whole name. Entries that are not selected are skipped without reading their data.
+ */
+public final class EntryFilter {
+  private final Pattern include;
+  private final Pattern exclude;
+
+  /**
+   * @param includeRegex the pattern entries must match, or null to include every entry
+   * @param excludeRegex the pattern entries must not match, or null to exclude no entry
+   */
+  public EntryFilter(@Nullable String includeRegex, @Nullable String excludeRegex) {
+    this.include = includeRegex == null ? null : Pattern.compile(includeRegex);
+    this.exclude = excludeRegex == null ? null : Pattern.compile(excludeRegex);
+  }
+
+  /**
+   * Returns whether the entry name matches the include pattern, if any, and not the exclude pattern.
+   */
+  public boolean isSelected(String name) {
+    return (include == null || include.matcher(name).matches()) && (exclude == null || !exclude.matcher(name).matches());
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Limits on how much the files of a run may expand, which keep a decompression bomb or a corrupt archive from
+ * filling the destination or the memory of a reader. The limits are checked as expanded data is read, by the
+ * expansion tracker of each file in the Decompress action and by the record reader of the batch source, so that
+ * expanding stops with a {@link LimitExceededException} as soon as one of them is exceeded. The bytes expanded by all
+ * the files sharing the limits count towards the limit of the run.
+ */
+public final class ExpansionLimits {
+  public static final ExpansionLimits NONE = new ExpansionLimits(null, null, null, null, null);
+
+  // small files of repetitive data have high ratios without being a threat, so the ratio is only checked past this
+  private static final long RATIO_THRESHOLD = 1024 * 1024;
+
+  private final long maxFileBytes;
+  private final long maxRunBytes;
+  private final double maxRatio;
+  private final long maxEntries;
+  private final long maxEntrySize;
+  private final AtomicLong runBytes = new AtomicLong();
+
+  /**
+   * Each limit is disabled when null.
+   *
+   * @param maxFileBytes the maximum number of bytes a file may expand to
+   * @param maxRunBytes the maximum number of bytes all the files sharing the limits may expand to
+   * @param maxRatio the maximum ratio of the bytes a file expands to over the bytes read from it
+   * @param maxEntries the maximum number of entries extracted from an archive
+   * @param maxEntrySize the maximum number of bytes an archive entry or compressed file may expand to
+   */
+  public ExpansionLimits(@Nullable Long maxFileBytes, @Nullable Long maxRunBytes, @Nullable Double maxRatio,
+                          @Nullable Long maxEntries, @Nullable Long maxEntrySize) {
+    this.maxFileBytes = maxFileBytes == null ? Long.MAX_VALUE : maxFileBytes;
+    this.maxRunBytes = maxRunBytes == null ? Long.MAX_VALUE : maxRunBytes;
+    this.maxRatio = maxRatio == null ? Double.POSITIVE_INFINITY : maxRatio;
+    this.maxEntries = maxEntries == null ? Long.MAX_VALUE : maxEntries;
+    this.maxEntrySize = maxEntrySize == null ? Long.MAX_VALUE : maxEntrySize;
+  }
+
+  /**
+   * Returns whether any limit on the expanded bytes is set, which is when expanded data has to be counted.
+   */
+  public boolean limitsBytes() {
+    return maxFileBytes != Long.MAX_VALUE || maxRunBytes != Long.MAX_VALUE || maxRatio != Double.POSITIVE_INFINITY ||
+      maxEntrySize != Long.MAX_VALUE;
+  }
+
+  /**
+   * Checks the number of entries extracted from a file so far.
+   */
+  public void checkEntries(Path source, long entries) throws LimitExceededException {
+    if (entries > maxEntries) {
+      throw new LimitExceededException(String.format("%s has more than the maximum of %d entries", source,
+                                                     maxEntries));
+    }
+  }
+
+  /**
+   * Checks the number of bytes an archive entry or compressed file has expanded to so far.
+   */
+  public void checkEntrySize(Path source, long bytes) throws LimitExceededException {
+    if (bytes > maxEntrySize) {
+      throw new LimitExceededException(String.format("An entry of %s expanded to more than the maximum of %d bytes",
+                                                     source, maxEntrySize));
+    }
+  }
+
+  /**
+   * Counts bytes newly expanded from a file, and checks the totals of the file and of the run.
+   *
+   * @param fileBytes the bytes expanded from the file so far, including the new ones
+   * @param bytesRead the bytes read from the file so far
+   * @param bytes the bytes newly expanded
+   */
+  public void checkExpanded(Path source, long fileBytes, long bytesRead, long bytes) throws LimitExceededException {
+    if (fileBytes > maxFileBytes) {
+      throw new LimitExceededException(String.format("%s expanded to more than the maximum of %d bytes per file",
+                                                     source, maxFileBytes));
+    }
+    if (fileBytes > RATIO_THRESHOLD && fileBytes > maxRatio * Math.max(bytesRead, 1)) {
+      throw new LimitExceededException(String.format(
+        "%s expanded to %d bytes from %d bytes read, over the maximum compression ratio of %s", source, fileBytes,
+        bytesRead, maxRatio));
+    }
+    if (maxRunBytes != Long.MAX_VALUE && runBytes.addAndGet(bytes) > maxRunBytes) {
+      throw new LimitExceededException(String.format("The run expanded to more than the maximum of %d bytes while " +
+                                                       "expanding %s", maxRunBytes, source));
+    }
+  }
+
+  /**
+   * Takes bytes counted by {@link #checkExpanded(Path, long, long, long)} back out of the total of the run, when
+   * the attempt that expanded them is abandoned and the data is expanded again.
+   */
+  public void releaseExpanded(long bytes) {
+    if (maxRunBytes != Long.MAX_VALUE) {
+      runBytes.addAndGet(-bytes);
+    }
+  }
+
+  /**
+   * Thrown when expanding a file exceeds one of the limits.
+   */
+  public static final class LimitExceededException extends IOException {
+    public LimitExceededException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import javax.annotation.Nullable;
+
+/**
+ * Read-only {@link SeekableByteChannel} over a Hadoop {@link FSDataInputStream}. Reads are served with positioned
+ * reads, so random access does not need a local copy of the file. The Decompress action reads ZIP archives through
+ * it, and the batch source the ZIP entries of its splits.
+ */
+public final class PositionedReadChannel implements SeekableByteChannel {
+  private final FSDataInputStream input;
+  private final long size;
+  @Nullable
+  private final ReadListener listener;
+  private long position;
+  private boolean open = true;
+
+  public PositionedReadChannel(FSDataInputStream input, long size) {
+    this(input, size, null);
+  }
+
+  /**
+   * @param listener the listener told about every read, if any
+   */
+  public PositionedReadChannel(FSDataInputStream input, long size, @Nullable ReadListener listener) {
+    this.input = input;
+    this.size = size;
+    this.listener = listener;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    if (position >= size) {
+      return -1;
+    }
+    int length = (int) Math.min(dst.remaining(), size - position);
+    if (length == 0) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    int read;
+    if (dst.hasArray()) {
+      read = input.read(position, dst.array(), dst.arrayOffset() + dst.position(), length);
+      if (read > 0) {
+        dst.position(dst.position() + read);
+      }
+    } else {
+      byte[] buffer = new byte[length];
+      read = input.read(position, buffer, 0, length);
+      if (read > 0) {
+        dst.put(buffer, 0, read);
+      }
+    }
+    if (read > 0) {
+      position += read;
+    }
+    if (listener != null) {
+      listener.recordRead(Math.max(read, 0), System.nanoTime() - start);
+    }
+    return read;
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long position() throws IOException {
+    ensureOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("Position must not be negative: " + newPosition);
+    }
+    position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    ensureOpen();
+    return size;
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (open) {
+      open = false;
+      input.close();
+    }
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  /**
+   * Told about every read of the channel, for accounting.
+   */
+  public interface ReadListener {
+    /**
+     * Records that the given number of bytes were read in the given time.
+     */
+    void recordRead(long bytes, long nanos);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.common;
+
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.brotli.BrotliUtils;
+import org.apache.commons.compress.compressors.lzma.LZMAUtils;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import java.io.InputStream;
+
+/**
+ * Detects the format of a stream from the signature it starts with. The stream must support mark and reset, and is
+ * left at its current position.
+ */
+public final class StreamFormats {
+
+  private StreamFormats() {
+  }
+
+  /**
+   * Checks whether the stream starts with the signature of a compression format.
+   */
+  public static boolean isCompressed(InputStream input) {
+    try {
+      CompressorStreamFactory.detect(input);
+      return true;
+    } catch (CompressorException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Checks whether the stream starts with the signature of a compression format that can be decompressed, leaving
+   * out the formats whose library is not on the classpath, such as xz, lzma and zstd.
+   */
+  public static boolean isDecompressible(InputStream input) {
+    String format;
+    try {
+      format = CompressorStreamFactory.detect(input);
+    } catch (CompressorException e) {
+      return false;
+    }
+    switch (format) {
+      case CompressorStreamFactory.XZ:
+        return XZUtils.isXZCompressionAvailable();
+      case CompressorStreamFactory.LZMA:
+        return LZMAUtils.isLZMACompressionAvailable();
+      case CompressorStreamFactory.ZSTANDARD:
+        return ZstdUtils.isZstdCompressionAvailable();
+      case CompressorStreamFactory.BROTLI:
+        return BrotliUtils.isBrotliCompressionAvailable();
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Checks whether the stream starts with the signature of an archive format.
+   */
+  public static boolean isArchive(InputStream input) {
+    try {
+      ArchiveStreamFactory.detect(input);
+      return true;
+    } catch (ArchiveException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link DecompressInputFormat}
+ */
+public class DecompressInputFormatTest {
+  @ClassRule
+  public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testLinesOfArchivedAndCompressedFiles() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(new File(sourceFolder, "a.txt.gz")))) {
+      out.write("first\r\nsecond\n".getBytes(StandardCharsets.UTF_8));
+    }
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new GzipCompressorOutputStream(new FileOutputStream(new File(sourceFolder, "b.tar.gz"))))) {
+      byte[] content = "third\nfourth".getBytes(StandardCharsets.UTF_8);
+      TarArchiveEntry entry = new TarArchiveEntry("dir/b.txt");
+      entry.setSize(content.length);
+      tar.putArchiveEntry(entry);
+      tar.write(content);
+      tar.closeArchiveEntry();
+    }
+
+    List<String> lines = new ArrayList<>();
+    for (StructuredRecord record : read(new DecompressSourceConfig("ref", sourceFolder.getPath(), null, null, null,
+                                                                    null), 2)) {
+      lines.add(String.format("%s|%s|%d|%s", new File(record.<String>get("path")).getName(), record.get("entry"),
+                              record.<Long>get("offset"), record.get("body")));
+    }
+    Collections.sort(lines);
+    assertEquals(Arrays.asList("a.txt.gz|null|0|first", "a.txt.gz|null|7|second", "b.tar.gz|dir/b.txt|0|third",
+                               "b.tar.gz|dir/b.txt|6|fourth"), lines);
+  }
+
+  @Test
+  public void testZipEntriesSplit() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    byte[][] contents = new byte[3][];
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new File(sourceFolder, "entries.zip"))) {
+      for (int i = 0; i < contents.length; i++) {
+        contents[i] = new byte[100];
+        Arrays.fill(contents[i], (byte) i);
+        zip.putArchiveEntry(new ZipArchiveEntry("entry" + i + ".bin"));
+        zip.write(contents[i]);
+        zip.closeArchiveEntry();
+      }
+    }
+
+    // every entry compresses to more than a byte, so each gets a split of its own
+    List<StructuredRecord> records = read(new DecompressSourceConfig("ref", sourceFolder.getPath(), ".*\\.zip", null,
+                                                                     DecompressSourceConfig.BLOB, 1L), 3);
+    assertEquals(3, records.size());
+    for (int i = 0; i < contents.length; i++) {
+      assertEquals("entry" + i + ".bin", records.get(i).get("entry"));
+      assertArrayEquals(contents[i], records.get(i).get("body"));
+    }
+  }
+
+  @Test
+  public void testSelectedEntries() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    String[] names = {"a.json", "b.csv", "c.json"};
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new FileOutputStream(new File(sourceFolder, "entries.tar")))) {
+      for (String name : names) {
+        byte[] content = name.getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+      }
+    }
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new File(sourceFolder, "entries.zip"))) {
+      for (String name : names) {
+        zip.putArchiveEntry(new ZipArchiveEntry(name));
+        zip.write(name.getBytes(StandardCharsets.UTF_8));
+        zip.closeArchiveEntry();
+      }
+    }
+
+    DecompressSourceConfig config = DecompressSourceConfig.newBuilder(
+      new DecompressSourceConfig("ref", sourceFolder.getPath(), null, null, null, 1L))
+      .setEntryIncludeRegex(".*\\.json")
+      .setEntryExcludeRegex("c\\..*")
+      .build();
+    // the ZIP archive only gets a split for its selected entry
+    List<String> lines = new ArrayList<>();
+    for (StructuredRecord record : read(config, 2)) {
+      lines.add(record.get("entry") + "|" + record.get("body"));
+    }
+    assertEquals(Arrays.asList("a.json|a.json", "a.json|a.json"), lines);
+  }
+
+  @Test(expected = ExpansionLimits.LimitExceededException.class)
+  public void testBlobEntryOverMaxEntrySize() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(new File(sourceFolder, "a.bin.gz")))) {
+      out.write(new byte[1000]);
+    }
+    DecompressSourceConfig config = DecompressSourceConfig.newBuilder(
+      new DecompressSourceConfig("ref", sourceFolder.getPath(), null, null, DecompressSourceConfig.BLOB, null))
+      .setMaxEntrySize(100L)
+      .build();
+    read(config, 1);
+  }
+
+  /**
+   * Reads all the records of the splits of the given config, checking the number of splits.
+   */
+  private static List<StructuredRecord> read(DecompressSourceConfig config, int expectedSplits) throws Exception {
+    Configuration conf = new Configuration();
+    for (Map.Entry<String, String> entry : DecompressInputFormat.configure(config).entrySet()) {
+      conf.set(entry.getKey(), entry.getValue());
+    }
+    DecompressInputFormat inputFormat = new DecompressInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(Job.getInstance(conf));
+    assertEquals(expectedSplits, splits.size());
+
+    List<StructuredRecord> records = new ArrayList<>();
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+    for (InputSplit split : splits) {
+      try (RecordReader<NullWritable, StructuredRecord> reader = inputFormat.createRecordReader(split, context)) {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          records.add(reader.getCurrentValue());
+        }
+      }
+    }
+    return records;
+  }
+}
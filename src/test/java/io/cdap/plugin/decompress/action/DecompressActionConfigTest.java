@@ -100,6 +100,151 @@ public class DecompressActionConfigTest {
     assertPropertyValidationFailed(failureCollector, DecompressActionConfig.CONTINUE_ON_ERROR);
   }
 
+  @Test
+  public void testInvalidParallelism() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setParallelism(0)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.PARALLELISM);
+  }
+
+  @Test
+  public void testInvalidMaxParallelism() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setParallelism(4)
+      .setMaxParallelism(2)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.MAX_PARALLELISM);
+  }
+
+  @Test
+  public void testCheckpointWithStagedWrites() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setCheckpointInterval(100L)
+      .setStagedWrites(true)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.CHECKPOINT_INTERVAL);
+  }
+
+  @Test
+  public void testInvalidCodecBackend() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setCodecBackend("zstd")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.CODEC_BACKEND);
+  }
+
+  @Test
+  public void testInvalidReadBufferSize() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setReadBufferSize("64k")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.READ_BUFFER_SIZE);
+  }
+
+  @Test
+  public void testInvalidCoalesceThreshold() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setCoalesceThreshold(0L)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.COALESCE_THRESHOLD);
+  }
+
+  @Test
+  public void testInvalidEntryIncludeRegex() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setEntryIncludeRegex("*.csv")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.ENTRY_INCLUDE_REGEX);
+  }
+
+  @Test
+  public void testInvalidOutputCodec() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setOutputCodec("zstd")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.OUTPUT_CODEC);
+  }
+
+  @Test
+  public void testInvalidPipelineQueueDepth() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setPipelineQueueDepth(0)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.PIPELINE_QUEUE_DEPTH);
+  }
+
+  @Test
+  public void testInvalidMaxNestingDepth() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setMaxNestingDepth(-1)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.MAX_NESTING_DEPTH);
+  }
+
+  @Test
+  public void testInvalidMaxCompressionRatio() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setMaxCompressionRatio(0.5)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.MAX_COMPRESSION_RATIO);
+  }
+
+  @Test
+  public void testInvalidOutputPartSize() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setOutputPartSize(0L)
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.OUTPUT_PART_SIZE);
+  }
+
+  @Test
+  public void testInvalidOutputDigests() {
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(VALID_CONFIG)
+      .setOutputDigests("md5,sha1")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertPropertyValidationFailed(failureCollector, DecompressActionConfig.OUTPUT_DIGESTS);
+  }
+
   public static void assertPropertyValidationFailed(MockFailureCollector failureCollector, String paramName) {
     List<ValidationFailure> failureList = failureCollector.getValidationFailures();
     Assert.assertEquals(1, failureList.size());
@@ -16,18 +16,68 @@
 
 package io.cdap.plugin.decompress.action;
 
+import com.google.common.collect.Iterators;
+import com.google.common.hash.Hashing;
+import io.cdap.cdap.etl.api.StageMetrics;
 import io.cdap.cdap.etl.mock.action.MockActionContext;
 import io.cdap.cdap.etl.mock.common.MockPipelineConfigurer;
+import io.cdap.plugin.decompress.common.ExpansionLimits;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assume;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Unit tests for {@link DecompressAction}
@@ -81,6 +131,251 @@ public class DecompressActionTest {
     assertEquals(UNGZIPPED_FILE_NAME, destFolder.listFiles(filter)[0].getName());
   }
 
+  @Test
+  public void testSingleGZippedFileAutoCodecBackend() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(gzippedFile.getFile(), destFolder.getPath(), null, "Compressed", false))
+      .setCodecBackend("auto")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(1, destFolder.listFiles(filter).length);
+    assertEquals(UNGZIPPED_FILE_NAME, destFolder.listFiles(filter)[0].getName());
+  }
+
+  @Test
+  public void testMultiMemberGZippedFileInParallel() throws Exception {
+    Random random = new Random(0);
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "members.bin.gz");
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (OutputStream out = new FileOutputStream(source)) {
+      // random data does not compress, so every member ends up in a segment of its own
+      for (int i = 0; i < 3; i++) {
+        byte[] data = new byte[5 * 1024 * 1024];
+        random.nextBytes(data);
+        expected.write(data);
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try (GzipCompressorOutputStream gzip = new GzipCompressorOutputStream(member)) {
+          gzip.write(data);
+        }
+        member.writeTo(out);
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setThreadsPerFile(3)
+      .setDecompressMembersInParallel(true)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(new File(destFolder, "members.bin").toPath()));
+  }
+
+  @Test(expected = ExpansionLimits.LimitExceededException.class)
+  public void testMembersInParallelEntryLimit() throws Exception {
+    Random random = new Random(0);
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "members.bin.gz");
+    try (OutputStream out = new FileOutputStream(source)) {
+      for (int i = 0; i < 3; i++) {
+        byte[] data = new byte[5 * 1024 * 1024];
+        random.nextBytes(data);
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try (GzipCompressorOutputStream gzip = new GzipCompressorOutputStream(member)) {
+          gzip.write(data);
+        }
+        member.writeTo(out);
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    // every segment is below the limit, but the file as a whole is not
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setThreadsPerFile(3)
+      .setDecompressMembersInParallel(true)
+      .setMaxEntrySize(12L * 1024 * 1024)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      new DecompressAction(config).run(new MockActionContext());
+    } catch (IOException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  @Test
+  public void testMembersInParallelFallbackWithinLimits() throws Exception {
+    Random random = new Random(0);
+    byte[] data = new byte[15 * 1024 * 1024];
+    random.nextBytes(data);
+    // gzip headers in data stored without compression look like member boundaries, so the file is cut there and
+    // the segments fail to decode on their own
+    byte[] header = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    for (int offset : new int[] {5 * 1024 * 1024, 10 * 1024 * 1024}) {
+      System.arraycopy(header, 0, data, offset, header.length);
+    }
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "stored.bin.gz");
+    GzipParameters parameters = new GzipParameters();
+    parameters.setCompressionLevel(Deflater.NO_COMPRESSION);
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(source), parameters)) {
+      out.write(data);
+    }
+    File destFolder = temporaryFolder.newFolder();
+    // the file is within the limits, which the abandoned parallel attempt does not count towards
+    long limit = data.length + 1024 * 1024;
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setThreadsPerFile(3)
+      .setDecompressMembersInParallel(true)
+      .setMaxFileExpandedBytes(limit)
+      .setMaxRunExpandedBytes(limit)
+      .setMaxCompressionRatio(1.5)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertArrayEquals(data, Files.readAllBytes(new File(destFolder, "stored.bin").toPath()));
+  }
+
+  @Test
+  public void testListingFailureWaitsForRunningTasks() throws Exception {
+    for (boolean adaptive : Arrays.asList(false, true)) {
+      AtomicLong finished = new AtomicLong();
+      Iterator<AdaptiveTaskRunner.Task> tasks = new Iterator<AdaptiveTaskRunner.Task>() {
+        private boolean started;
+
+        @Override
+        public boolean hasNext() {
+          if (started) {
+            throw new UncheckedIOException(new IOException("Listing failed"));
+          }
+          return true;
+        }
+
+        @Override
+        public AdaptiveTaskRunner.Task next() {
+          started = true;
+          return new AdaptiveTaskRunner.Task() {
+            @Override
+            public long getMemory() {
+              return 0;
+            }
+
+            @Override
+            public void run() throws Exception {
+              TimeUnit.MILLISECONDS.sleep(200);
+              finished.incrementAndGet();
+            }
+          };
+        }
+      };
+      try {
+        if (adaptive) {
+          new AdaptiveTaskRunner("test", 2, 2, Long.MAX_VALUE, finished::get).run(tasks);
+        } else {
+          BoundedTaskRunner.run("test", 2, tasks);
+        }
+        fail("Expected the listing to fail");
+      } catch (UncheckedIOException e) {
+        // the task started before the listing failed is done by the time the failure is reported
+        assertEquals(1, finished.get());
+      }
+    }
+  }
+
+  @Test
+  public void testStreamingListingMatchesEagerListing() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    File subFolder = new File(sourceFolder, "sub");
+    assertTrue(subFolder.mkdir());
+    for (File file : Arrays.asList(new File(sourceFolder, "a.json.gz"), new File(sourceFolder, "b.json.gz"),
+                                   new File(sourceFolder, "b.txt"), new File(subFolder, "c.json.gz"))) {
+      Files.write(file.toPath(), new byte[] {1});
+    }
+    File destFolder = temporaryFolder.newFolder();
+    for (String source : Arrays.asList(sourceFolder.getPath(), sourceFolder.getPath() + "/*")) {
+      List<Set<String>> listings = new ArrayList<>();
+      for (boolean streaming : Arrays.asList(false, true)) {
+        DecompressActionConfig config = DecompressActionConfig.newBuilder(
+          new DecompressActionConfig(source, destFolder.getPath(), ".*\\.gz", "Compressed", false))
+          .setStreamingListing(streaming)
+          .build();
+        Path sourcePath = new Path(source);
+        FileSystem fileSystem = sourcePath.getFileSystem(new Configuration());
+        Set<String> names = new TreeSet<>();
+        Iterators.addAll(names, Iterators.transform(
+          new FileExpander(config, fileSystem.getConf()).listFiles(sourcePath, new Path(destFolder.getPath()),
+                                                                   fileSystem), file -> file.getPath().getName()));
+        listings.add(names);
+      }
+      assertEquals(source, new TreeSet<>(Arrays.asList("a.json.gz", "b.json.gz")), listings.get(0));
+      assertEquals(source, listings.get(0), listings.get(1));
+    }
+  }
+
+  @Test
+  public void testManifestSkipsUnchangedFiles() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, GZIPPED_FILE_NAME);
+    Files.copy(new File(gzippedFile.getFile()).toPath(), source.toPath());
+    File destFolder = temporaryFolder.newFolder();
+    File manifest = new File(temporaryFolder.newFolder(), "manifest");
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setManifestPath(manifest.getPath())
+      .build();
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(1, destFolder.listFiles(filter).length);
+    assertTrue(manifest.exists());
+
+    // an unchanged source is not expanded again
+    new File(destFolder, UNGZIPPED_FILE_NAME).delete();
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(0, destFolder.listFiles(filter).length);
+
+    // a modified source is
+    assertTrue(source.setLastModified(source.lastModified() - 60000));
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(1, destFolder.listFiles(filter).length);
+  }
+
+  @Test
+  public void testManifestRecoveredFromLog() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File sourceFolder = temporaryFolder.newFolder();
+    Files.copy(new File(gzippedFile.getFile()).toPath(), new File(sourceFolder, GZIPPED_FILE_NAME).toPath());
+    File destFolder = temporaryFolder.newFolder();
+    File manifest = new File(temporaryFolder.newFolder(), "manifest");
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setManifestPath(manifest.getPath())
+      .build();
+    new DecompressAction(config).run(new MockActionContext());
+    assertFalse(new File(manifest.getPath() + ".log").exists());
+
+    // a run that crashed while writing the first manifest leaves a truncated temporary file and its log behind
+    File log = new File(manifest.getPath() + ".log");
+    Files.move(manifest.toPath(), log.toPath());
+    Files.write(new File(manifest.getPath() + ".tmp").toPath(), "12\t34".getBytes("UTF-8"));
+    new File(destFolder, UNGZIPPED_FILE_NAME).delete();
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(0, destFolder.listFiles(filter).length);
+    assertTrue(manifest.exists());
+    assertFalse(log.exists());
+  }
+
   @Test
   public void testSingleZippedFile() throws Exception {
     ClassLoader classLoader = getClass().getClassLoader();
@@ -95,6 +390,21 @@ public class DecompressActionTest {
     assertEquals(2, new File(destFolder.getPath() + "/example").listFiles(filter).length);
   }
 
+  @Test
+  public void testSingleZippedFileWithEntryThreads() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL zippedFile = classLoader.getResource(ZIPPED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(zippedFile.getFile(), destFolder.getPath(), null, "Archived", false))
+      .setThreadsPerFile(4)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(2, new File(destFolder.getPath() + "/example").listFiles(filter).length);
+  }
+
   @Test
   public void testSingleTarredFile() throws Exception {
     ClassLoader classLoader = getClass().getClassLoader();
@@ -121,5 +431,870 @@ public class DecompressActionTest {
     new DecompressAction(config).configurePipeline(configurer);
     new DecompressAction(config).run(new MockActionContext());
     assertEquals(2, new File(destFolder.getPath() + "/example").listFiles(filter).length);
+    // the intermediate archive should never be written
+    assertFalse(new File(destFolder, "example.tar").exists());
+  }
+
+  @Test
+  public void testParallelGZippedFiles() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File sourceFolder = temporaryFolder.newFolder();
+    for (int i = 0; i < 8; i++) {
+      Files.copy(new File(gzippedFile.getFile()).toPath(), new File(sourceFolder, "example" + i + ".json.gz").toPath());
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setParallelism(4)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(8, destFolder.listFiles(filter).length);
+  }
+
+  @Test
+  public void testAdaptiveParallelGZippedFiles() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File sourceFolder = temporaryFolder.newFolder();
+    for (int i = 0; i < 8; i++) {
+      Files.copy(new File(gzippedFile.getFile()).toPath(), new File(sourceFolder, "example" + i + ".json.gz").toPath());
+    }
+    File destFolder = temporaryFolder.newFolder();
+    // every file takes more than the budget, so the files are expanded one at a time
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setParallelism(2)
+      .setMaxParallelism(4)
+      .setMemoryBudget(1L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(8, destFolder.listFiles(filter).length);
+  }
+
+  @Test
+  public void testAutoDetectedMixedFiles() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    File sourceFolder = temporaryFolder.newFolder();
+    Files.copy(new File(classLoader.getResource(GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "compressed.json.gz").toPath());
+    Files.copy(new File(classLoader.getResource(ZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "archived.zip").toPath());
+    Files.copy(new File(classLoader.getResource(TARRED_GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "both.tar.gz").toPath());
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(),
+                                                               null, "Auto", false);
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertTrue(new File(destFolder, "compressed.json").isFile());
+    assertEquals(2, new File(destFolder, "archived").listFiles(filter).length);
+    assertEquals(2, new File(destFolder, "both").listFiles(filter).length);
+    assertFalse(new File(destFolder, "both.tar").exists());
+  }
+
+  @Test
+  public void testRecursiveGZippedFiles() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File sourceFolder = temporaryFolder.newFolder();
+    File folder = sourceFolder;
+    for (int i = 0; i < 3; i++) {
+      Files.copy(new File(gzippedFile.getFile()).toPath(), new File(folder, "example" + i + ".json.gz").toPath());
+      folder = new File(folder, "nested" + i);
+      assertTrue(folder.mkdir());
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), ".*\\.gz", "Compressed", false))
+      .setRecursive(true)
+      .setParallelism(2)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(3, destFolder.listFiles(filter).length);
+    assertTrue(new File(destFolder, "example2.json").isFile());
+  }
+
+  @Test
+  public void testStagedWrites() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    File sourceFolder = temporaryFolder.newFolder();
+    Files.copy(new File(classLoader.getResource(GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "compressed.json.gz").toPath());
+    Files.copy(new File(classLoader.getResource(TARRED_GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "both.tar.gz").toPath());
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Auto", false))
+      .setStagedWrites(true)
+      .setParallelism(2)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertTrue(new File(destFolder, "compressed.json").isFile());
+    assertEquals(2, new File(destFolder, "both").listFiles(filter).length);
+    assertTrue(new File(destFolder, StagedCommitter.SUCCESS).isFile());
+    assertFalse(new File(destFolder, StagedCommitter.TEMPORARY).exists());
+  }
+
+  @Test
+  public void testStagedWritesKeepOtherAttempts() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    File sourceFolder = temporaryFolder.newFolder();
+    Files.copy(new File(classLoader.getResource(GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, GZIPPED_FILE_NAME).toPath());
+    File destFolder = temporaryFolder.newFolder();
+    File temporary = new File(destFolder, StagedCommitter.TEMPORARY);
+    // the staging directory of a run in flight, and one left over by a run that crashed two days ago
+    File inFlight = new File(temporary, "in-flight");
+    File crashed = new File(temporary, "crashed");
+    assertTrue(new File(inFlight, "1").mkdirs());
+    assertTrue(new File(crashed, "1").mkdirs());
+    assertTrue(crashed.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setStagedWrites(true)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertTrue(new File(destFolder, UNGZIPPED_FILE_NAME).isFile());
+    assertTrue(new File(inFlight, "1").isDirectory());
+    assertFalse(crashed.exists());
+    assertEquals(1, temporary.listFiles().length);
+  }
+
+  @Test
+  public void testStagedWritesSingleGZippedFile() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL gzippedFile = classLoader.getResource(GZIPPED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    File destFile = new File(destFolder, UNGZIPPED_FILE_NAME);
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(gzippedFile.getFile(), destFile.getPath(), null, "Compressed", false))
+      .setStagedWrites(true)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertTrue(destFile.isFile());
+    assertTrue(new File(destFolder, StagedCommitter.SUCCESS).isFile());
+    assertFalse(new File(destFolder, StagedCommitter.TEMPORARY).exists());
+  }
+
+  @Test
+  public void testStagedWritesRemoveStaleParts() throws Exception {
+    File source = new File(temporaryFolder.newFolder(), "lines.txt.gz");
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setStagedWrites(true)
+      .setOutputPartSize(1000L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    File folder = new File(destFolder, "lines.txt");
+    for (int lines : new int[] {1000, 10}) {
+      try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(source))) {
+        for (int i = 0; i < lines; i++) {
+          out.write(String.format("line %d%n", i).getBytes("UTF-8"));
+        }
+      }
+      new DecompressAction(config).run(new MockActionContext());
+      assertTrue(new File(folder, "part-00000").isFile());
+    }
+    // the parts of the first run past the single part of the second one are gone
+    assertEquals(Arrays.asList("part-00000"),
+                 Arrays.asList(folder.list((dir, name) -> name.startsWith(EntryCoalescer.PART_PREFIX))));
+  }
+
+  @Test
+  public void testCoalescedTarredEntries() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL tarredFile = classLoader.getResource(TARRED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    // the archive holds two 226 byte entries, which go to separate part files, and two 1121 byte entries
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(tarredFile.getFile(), destFolder.getPath(), null, "Archived", false))
+      .setCoalesceThreshold(1024L)
+      .setCoalesceTargetSize(300L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    File folder = new File(destFolder, "example");
+    assertEquals(2, folder.listFiles(filter).length);
+    assertEquals(226, new File(folder, "part-00000").length());
+    assertEquals(226, new File(folder, "part-00001").length());
+    assertFalse(new File(folder, "part-00002").exists());
+    assertEquals("0\t226\t./._example1.json\n",
+                 new String(Files.readAllBytes(new File(folder, "_part-00000.index").toPath()), "UTF-8"));
+  }
+
+  @Test
+  public void testCoalescedEntryNamesEscaped() throws Exception {
+    File source = new File(temporaryFolder.newFolder(), "names.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(source))) {
+      putTarEntry(tar, "tab\there.json", "{}".getBytes("UTF-8"));
+      putTarEntry(tar, "line\nbreak\\.json", "[]".getBytes("UTF-8"));
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setCoalesceThreshold(1024L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals("0\t2\ttab\\there.json\n2\t2\tline\\nbreak\\\\.json\n",
+                 new String(Files.readAllBytes(new File(destFolder, "names/_part-00000.index").toPath()), "UTF-8"));
+  }
+
+  @Test
+  public void testEntryNamedLikePartRejected() throws Exception {
+    File source = new File(temporaryFolder.newFolder(), "parts.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(source))) {
+      putTarEntry(tar, "small.json", "{}".getBytes("UTF-8"));
+      // too large to be coalesced, so it would be written over the part file holding the small entry
+      putTarEntry(tar, "part-00000", new byte[2048]);
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setCoalesceThreshold(1024L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      new DecompressAction(config).run(new MockActionContext());
+      fail("Expected the entry to be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("would overwrite a part file"));
+    }
+    assertEquals(2, new File(destFolder, "parts/part-00000").length());
+  }
+
+  @Test
+  public void testStoredEntriesTransferred() throws Exception {
+    Random random = new Random(0);
+    byte[][] contents = {new byte[100000], new byte[0], new byte[513]};
+    for (byte[] content : contents) {
+      random.nextBytes(content);
+    }
+    File sourceFolder = temporaryFolder.newFolder();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new FileOutputStream(new File(sourceFolder, "tarred.tar")))) {
+      for (int i = 0; i < contents.length; i++) {
+        TarArchiveEntry entry = new TarArchiveEntry("entry" + i + ".json");
+        entry.setSize(contents[i].length);
+        tar.putArchiveEntry(entry);
+        tar.write(contents[i]);
+        tar.closeArchiveEntry();
+      }
+    }
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new File(sourceFolder, "zipped.zip"))) {
+      zip.setMethod(ZipArchiveOutputStream.STORED);
+      for (int i = 0; i < contents.length; i++) {
+        zip.putArchiveEntry(new ZipArchiveEntry("entry" + i + ".json"));
+        zip.write(contents[i]);
+        zip.closeArchiveEntry();
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(),
+                                                               null, "Archived", false);
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    MetricsActionContext context = new MetricsActionContext();
+    new DecompressAction(config).run(context);
+    // every entry of both archives went through the transfer rather than an output stream
+    assertEquals(Long.valueOf(2 * contents.length), context.counts.get(ExpansionMetrics.ENTRIES_TRANSFERRED));
+    for (String archive : new String[] {"tarred", "zipped"}) {
+      for (int i = 0; i < contents.length; i++) {
+        File entry = new File(new File(destFolder, archive), "entry" + i + ".json");
+        assertArrayEquals(contents[i], Files.readAllBytes(entry.toPath()));
+      }
+    }
+  }
+
+  @Test
+  public void testSelectedTarredEntries() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL tarredFile = classLoader.getResource(TARRED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(tarredFile.getFile(), destFolder.getPath(), null, "Archived", false))
+      .setEntryIncludeRegex(".*\\.json")
+      .setEntryExcludeRegex(".*example1\\.json")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    File folder = new File(destFolder, "example");
+    assertTrue(new File(folder, "example.json").isFile());
+    assertTrue(new File(folder, "._example.json").isFile());
+    assertFalse(new File(folder, "example1.json").exists());
+    assertFalse(new File(folder, "._example1.json").exists());
+  }
+
+  @Test
+  public void testSelectedZippedEntriesWithEntryThreads() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL zippedFile = classLoader.getResource(ZIPPED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(zippedFile.getFile(), destFolder.getPath(), null, "Archived", false))
+      .setThreadsPerFile(2)
+      .setEntryExcludeRegex(".*example1\\.json")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals(1, new File(destFolder, "example").listFiles(filter).length);
+  }
+
+  @Test
+  public void testRecompressedGZippedFile() throws Exception {
+    Random random = new Random(0);
+    // spans several chunks, so that it is compressed on a writer thread
+    byte[] data = new byte[1024 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "letters.txt.gz");
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(source))) {
+      out.write(data);
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setOutputCodec("bzip2")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertFalse(new File(destFolder, "letters.txt").exists());
+    try (InputStream input = new BZip2CompressorInputStream(
+      new FileInputStream(new File(destFolder, "letters.txt.bz2")))) {
+      assertArrayEquals(data, IOUtils.toByteArray(input));
+    }
+  }
+
+  @Test
+  public void testPipelinedCopy() throws Exception {
+    Random random = new Random(0);
+    byte[] data = new byte[3 * 1024 * 1024];
+    random.nextBytes(data);
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "data.bin.gz");
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(source))) {
+      out.write(data);
+    }
+    Files.copy(new File(getClass().getClassLoader().getResource(TARRED_GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, "example.tar.gz").toPath());
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Auto", false))
+      .setPipelineQueueDepth(2)
+      .setPipelineBufferCount(2)
+      .setReadBufferSize("4096")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertArrayEquals(data, Files.readAllBytes(new File(destFolder, "data.bin").toPath()));
+    assertEquals(2, new File(destFolder, "example").listFiles(filter).length);
+  }
+
+  @Test
+  public void testPipelinedSkip() throws Exception {
+    byte[] data = new byte[1024 * 1024];
+    new Random(0).nextBytes(data);
+    AtomicLong read = new AtomicLong();
+    // counts the bytes read, but not the bytes skipped
+    InputStream source = new ByteArrayInputStream(data) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        int count = super.read(b, off, len);
+        read.addAndGet(Math.max(count, 0));
+        return count;
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (InputStream input = new AsyncInputStream(source, executor, 4096, 2, 3)) {
+      byte[] chunk = new byte[16];
+      assertEquals(chunk.length, IOUtils.readFully(input, chunk));
+      assertEquals(500000, input.skip(500000));
+      assertEquals(chunk.length, IOUtils.readFully(input, chunk));
+      assertArrayEquals(Arrays.copyOfRange(data, 500016, 500032), chunk);
+      assertEquals(data.length - 500032, input.skip(data.length));
+      assertEquals(-1, input.read());
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(read.get() < data.length / 2);
+  }
+
+  @Test
+  public void testNestedArchives() throws Exception {
+    byte[] first = "{\"id\": 1}".getBytes("UTF-8");
+    byte[] second = "{\"id\": 2}".getBytes("UTF-8");
+    ByteArrayOutputStream inner = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(inner))) {
+      putTarEntry(tar, "first.json", first);
+    }
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (OutputStream out = new GzipCompressorOutputStream(gzipped)) {
+      out.write(second);
+    }
+    File sourceFolder = temporaryFolder.newFolder();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new FileOutputStream(new File(sourceFolder, "outer.tar")))) {
+      putTarEntry(tar, "inner.tar.gz", inner.toByteArray());
+      putTarEntry(tar, "second.json.gz", gzipped.toByteArray());
+    }
+
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setMaxNestingDepth(2)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    File folder = new File(destFolder, "outer");
+    assertArrayEquals(first, Files.readAllBytes(new File(new File(folder, "inner"), "first.json").toPath()));
+    assertArrayEquals(second, Files.readAllBytes(new File(folder, "second.json").toPath()));
+    assertFalse(new File(folder, "inner.tar.gz").exists());
+    assertFalse(new File(folder, "second.json.gz").exists());
+
+    // one layer only decompresses the tar.gz, leaving the tar it holds as it is
+    destFolder = temporaryFolder.newFolder();
+    config = DecompressActionConfig.newBuilder(config)
+      .setDestFilePath(destFolder.getPath())
+      .setMaxNestingDepth(1)
+      .build();
+    new DecompressAction(config).run(new MockActionContext());
+    folder = new File(destFolder, "outer");
+    assertTrue(new File(folder, "inner.tar").isFile());
+    assertFalse(new File(folder, "inner").exists());
+    assertArrayEquals(second, Files.readAllBytes(new File(folder, "second.json").toPath()));
+  }
+
+  @Test
+  public void testNestedEntryWithoutLibraryWrittenUnchanged() throws Exception {
+    // the xz library is not a dependency of the plugin
+    Assume.assumeFalse(XZUtils.isXZCompressionAvailable());
+    byte[] xz = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0, 0, 4, 1, 2, 3, 4};
+    byte[] json = "{\"id\": 1}".getBytes("UTF-8");
+    File sourceFolder = temporaryFolder.newFolder();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new FileOutputStream(new File(sourceFolder, "outer.tar")))) {
+      putTarEntry(tar, "data.xz", xz);
+      putTarEntry(tar, "first.json", json);
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setMaxNestingDepth(1)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    File folder = new File(destFolder, "outer");
+    assertArrayEquals(xz, Files.readAllBytes(new File(folder, "data.xz").toPath()));
+    assertArrayEquals(json, Files.readAllBytes(new File(folder, "first.json").toPath()));
+  }
+
+  @Test
+  public void testCompressionRatioLimit() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(new File(sourceFolder, "zeros.gz")))) {
+      out.write(new byte[16 * 1024 * 1024]);
+    }
+    Files.copy(new File(getClass().getClassLoader().getResource(GZIPPED_FILE_NAME).getFile()).toPath(),
+               new File(sourceFolder, GZIPPED_FILE_NAME).toPath());
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", true))
+      .setMaxCompressionRatio(100.0)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    assertTrue(new File(destFolder, UNGZIPPED_FILE_NAME).isFile());
+    // expanding stops once the limit is exceeded, long before the whole file is written
+    assertTrue(new File(destFolder, "zeros").length() < 4 * 1024 * 1024);
+  }
+
+  @Test(expected = ExpansionLimits.LimitExceededException.class)
+  public void testEntryLimit() throws Exception {
+    ClassLoader classLoader = getClass().getClassLoader();
+    URL tarredFile = classLoader.getResource(TARRED_FILE_NAME);
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(tarredFile.getFile(), destFolder.getPath(), null, "Archived", false))
+      .setMaxEntries(1L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      new DecompressAction(config).run(new MockActionContext());
+    } catch (IOException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  @Test
+  public void testSplitOutputParts() throws Exception {
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      lines.append("line ").append(i).append('\n');
+    }
+    byte[] data = lines.toString().getBytes("UTF-8");
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "lines.txt.gz");
+    try (OutputStream out = new GzipCompressorOutputStream(new FileOutputStream(source))) {
+      out.write(data);
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Compressed", false))
+      .setOutputPartSize(10000L)
+      .setThreadsPerFile(2)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+
+    File[] parts = new File(destFolder, "lines.txt").listFiles((dir, name) -> name.startsWith("part-"));
+    Arrays.sort(parts);
+    assertEquals(data.length / 10000 + 1, parts.length);
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (File part : parts) {
+      byte[] content = Files.readAllBytes(part.toPath());
+      // no line spans two parts
+      assertEquals('\n', content[content.length - 1]);
+      joined.write(content);
+    }
+    assertArrayEquals(data, joined.toByteArray());
+  }
+
+  @Test
+  public void testOutputDigests() throws Exception {
+    byte[] first = "{\"id\": 1}\n".getBytes("UTF-8");
+    byte[] second = "{\"id\": 2}\n".getBytes("UTF-8");
+    File sourceFolder = temporaryFolder.newFolder();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new File(sourceFolder, "records.zip"))) {
+      zip.putArchiveEntry(new ZipArchiveEntry("b.json"));
+      zip.write(second);
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("a.json"));
+      zip.write(first);
+      zip.closeArchiveEntry();
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setOutputDigests("crc32c, sha-256")
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+
+    List<String> lines = Files.readAllLines(new File(destFolder, "_records.zip.digests").toPath());
+    assertEquals(Arrays.asList(
+      "#crc32c\tsha-256\tpath",
+      String.format("%08x\t%s\trecords/a.json", Hashing.crc32c().hashBytes(first).asInt(),
+                    Hashing.sha256().hashBytes(first)),
+      String.format("%08x\t%s\trecords/b.json", Hashing.crc32c().hashBytes(second).asInt(),
+                    Hashing.sha256().hashBytes(second))), lines);
+  }
+
+  @Test(expected = ZipException.class)
+  public void testZipEntryCrcMismatch() throws Exception {
+    byte[] content = "{\"id\": 1}".getBytes("UTF-8");
+    ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipped)) {
+      zip.putArchiveEntry(new ZipArchiveEntry("a.json"));
+      zip.write(content);
+      zip.closeArchiveEntry();
+    }
+    // replaces the CRC in both the local header and the central directory
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    byte[] expected = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).array();
+    byte[] archive = zipped.toByteArray();
+    int replaced = 0;
+    for (int i = 0; i + expected.length <= archive.length; i++) {
+      if (Arrays.equals(expected, Arrays.copyOfRange(archive, i, i + expected.length))) {
+        archive[i] ^= 1;
+        replaced++;
+      }
+    }
+    assertEquals(2, replaced);
+    File source = new File(temporaryFolder.newFolder(), "corrupt.zip");
+    Files.write(source.toPath(), archive);
+
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config =
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false);
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      new DecompressAction(config).run(new MockActionContext());
+    } catch (IOException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void testStoredEntryCrcMismatch() throws Exception {
+    byte[] content = "{\"id\": 1}".getBytes("UTF-8");
+    File source = new File(temporaryFolder.newFolder(), "corrupt.zip");
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(source)) {
+      zip.setMethod(ZipArchiveOutputStream.STORED);
+      zip.putArchiveEntry(new ZipArchiveEntry("a.json"));
+      zip.write(content);
+      zip.closeArchiveEntry();
+    }
+    // the entry is stored as is, so its data can be found and altered in the archive
+    byte[] archive = Files.readAllBytes(source.toPath());
+    int offset = -1;
+    for (int i = 0; offset < 0 && i + content.length <= archive.length; i++) {
+      if (Arrays.equals(content, Arrays.copyOfRange(archive, i, i + content.length))) {
+        offset = i;
+      }
+    }
+    assertTrue(offset >= 0);
+    archive[offset] ^= 1;
+    Files.write(source.toPath(), archive);
+
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config =
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false);
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      new DecompressAction(config).run(new MockActionContext());
+    } catch (IOException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    File source = new File(sourceFolder, "entries.tar.gz");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new GzipCompressorOutputStream(new FileOutputStream(source)))) {
+      for (int i = 0; i < 5; i++) {
+        putTarEntry(tar, "entry" + i + ".json", String.format("{\"id\": %d}", i).getBytes("UTF-8"));
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived then compressed", false))
+      .setCheckpointInterval(1L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      // fails on the fourth entry
+      new DecompressAction(DecompressActionConfig.newBuilder(config).setMaxEntries(3L).build())
+        .run(new MockActionContext());
+      fail("Expected the entry limit to be exceeded");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof ExpansionLimits.LimitExceededException);
+    }
+    File checkpoint = new File(destFolder, "_entries.tar.gz.checkpoint");
+    assertTrue(checkpoint.isFile());
+    File entries = new File(destFolder, "entries");
+    assertFalse(new File(entries, "entry3.json").exists());
+    // entries extracted by the failed attempt are not written again
+    Files.write(new File(entries, "entry0.json").toPath(), "changed".getBytes("UTF-8"));
+
+    new DecompressAction(config).run(new MockActionContext());
+    assertEquals("changed", new String(Files.readAllBytes(new File(entries, "entry0.json").toPath()), "UTF-8"));
+    for (int i = 1; i < 5; i++) {
+      assertEquals(String.format("{\"id\": %d}", i),
+                   new String(Files.readAllBytes(new File(entries, "entry" + i + ".json").toPath()), "UTF-8"));
+    }
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testCorruptCheckpointIgnored() throws Exception {
+    File source = new File(temporaryFolder.newFolder(), "entries.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(source))) {
+      for (int i = 0; i < 3; i++) {
+        putTarEntry(tar, "entry" + i + ".json", String.format("{\"id\": %d}", i).getBytes("UTF-8"));
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    File checkpoint = new File(destFolder, "_entries.tar.checkpoint");
+    Files.write(checkpoint.toPath(), String.format("%d\t12x\tstreamed\t2\tentry1.json\n", source.length())
+      .getBytes("UTF-8"));
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setCheckpointInterval(1L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    new DecompressAction(config).run(new MockActionContext());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(String.format("{\"id\": %d}", i), new String(
+        Files.readAllBytes(new File(destFolder, "entries/entry" + i + ".json").toPath()), "UTF-8"));
+    }
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testCheckpointOfAnotherReadIgnored() throws Exception {
+    File source = new File(temporaryFolder.newFolder(), "entries.zip");
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(source)) {
+      for (int i = 0; i < 5; i++) {
+        zip.putArchiveEntry(new ZipArchiveEntry("entry" + i + ".json"));
+        zip.write(String.format("{\"id\": %d}", i).getBytes("UTF-8"));
+        zip.closeArchiveEntry();
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(source.getPath(), destFolder.getPath(), null, "Archived", false))
+      .setCheckpointInterval(1L)
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+    try {
+      // the deflated entries are streamed by a single thread, which fails on the fourth entry
+      new DecompressAction(DecompressActionConfig.newBuilder(config).setMaxEntries(3L).build())
+        .run(new MockActionContext());
+      fail("Expected the entry limit to be exceeded");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof ExpansionLimits.LimitExceededException);
+    }
+    File checkpoint = new File(destFolder, "_entries.zip.checkpoint");
+    assertTrue(checkpoint.isFile());
+    File entries = new File(destFolder, "entries");
+    Files.write(new File(entries, "entry0.json").toPath(), "changed".getBytes("UTF-8"));
+
+    // extracting the entries concurrently reads the central directory, so every entry is extracted again
+    new DecompressAction(DecompressActionConfig.newBuilder(config).setThreadsPerFile(2).build())
+      .run(new MockActionContext());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(String.format("{\"id\": %d}", i),
+                   new String(Files.readAllBytes(new File(entries, "entry" + i + ".json").toPath()), "UTF-8"));
+    }
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    byte[] first = "{\"id\": 1}\n".getBytes("UTF-8");
+    byte[] second = "{\"id\": 2, \"name\": \"two\"}\n".getBytes("UTF-8");
+    File sourceFolder = temporaryFolder.newFolder();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+      new FileOutputStream(new File(sourceFolder, "records.tar")))) {
+      putTarEntry(tar, "first.json", first);
+      putTarEntry(tar, "second.json", second);
+    }
+    Files.write(new File(sourceFolder, "corrupt.tar").toPath(), "not an archive".getBytes("UTF-8"));
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig config = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Archived", true))
+      .setManifestPath(new File(temporaryFolder.newFolder(), "manifest").getPath())
+      .build();
+    MockPipelineConfigurer configurer = new MockPipelineConfigurer(null);
+    new DecompressAction(config).configurePipeline(configurer);
+
+    MetricsActionContext context = new MetricsActionContext();
+    new DecompressAction(config).run(context);
+    assertEquals(Long.valueOf(1), context.counts.get(ExpansionMetrics.FILES_EXPANDED));
+    assertEquals(Long.valueOf(1), context.counts.get(ExpansionMetrics.FILES_FAILED));
+    assertEquals(Long.valueOf(2), context.counts.get(ExpansionMetrics.ENTRIES_EXTRACTED));
+    assertEquals(Long.valueOf(first.length + second.length), context.counts.get(ExpansionMetrics.BYTES_OUT));
+    assertTrue(context.counts.get(ExpansionMetrics.BYTES_IN) >= first.length + second.length);
+    assertFalse(context.counts.containsKey(ExpansionMetrics.FILES_SKIPPED));
+
+    // the expanded file is in the manifest now, while the corrupt one fails again
+    context = new MetricsActionContext();
+    new DecompressAction(config).run(context);
+    assertEquals(Long.valueOf(1), context.counts.get(ExpansionMetrics.FILES_SKIPPED));
+    assertEquals(Long.valueOf(1), context.counts.get(ExpansionMetrics.FILES_FAILED));
+    assertFalse(context.counts.containsKey(ExpansionMetrics.FILES_EXPANDED));
+  }
+
+  @Test
+  public void testMetricsSummary() throws Exception {
+    MetricsActionContext context = new MetricsActionContext();
+    ExpansionMetrics metrics = new ExpansionMetrics(context.getMetrics());
+    ExpansionTracker tracker = new ExpansionTracker(
+      new FileStatus(1024 * 1024, false, 1, 0, 0, new Path("/source/records.tar")), ExpansionLimits.NONE);
+    tracker.recordRead(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(1500));
+    tracker.recordEntry();
+    tracker.recordEntry();
+    tracker.recordTransfer(new Path("/dest/records/first.json"), 3 * 1024 * 1024, TimeUnit.MILLISECONDS.toNanos(250));
+    metrics.record(tracker, true);
+    metrics.recordSkipped();
+
+    assertEquals(Long.valueOf(1500), context.counts.get(ExpansionMetrics.READ_TIME));
+    assertEquals(Long.valueOf(250), context.counts.get(ExpansionMetrics.WRITE_TIME));
+    String summary = metrics.getSummary();
+    assertTrue(summary, summary.startsWith("Expanded 1 files into 2 entries, 1.0 MB read and 3.0 MB written " +
+                                             "(ratio 3.00)"));
+    assertTrue(summary, summary.contains("Time spent reading 1.5 s, inflating 0.0 s and writing 0.3 s."));
+    assertTrue(summary, summary.endsWith("0 files failed and 1 were skipped."));
+  }
+
+  @Test
+  public void testDictionarySizeFromHeader() {
+    // stream header, then a block header with a single LZMA2 filter whose property byte encodes a 64 MB dictionary
+    byte[] xz = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0, 0, 4, 0, 0, 0, 0, 2, 0, 0x21, 1, 28};
+    assertEquals(64L * 1024 * 1024, MemoryEstimator.getXzDictionarySize(xz, xz.length));
+    xz[16] = 23;
+    assertEquals(12L * 1024 * 1024, MemoryEstimator.getXzDictionarySize(xz, xz.length));
+    assertEquals(-1, MemoryEstimator.getXzDictionarySize(xz, 15));
+    assertEquals(-1, MemoryEstimator.getXzDictionarySize("not xz".getBytes(), 6));
+
+    // properties byte, then the little endian dictionary size
+    byte[] lzma = {0x5d, 0, 0, 0, 4};
+    assertEquals(64L * 1024 * 1024, MemoryEstimator.getLzmaDictionarySize(lzma, lzma.length));
+    assertEquals(-1, MemoryEstimator.getLzmaDictionarySize(lzma, 4));
+  }
+
+  private static void putTarEntry(TarArchiveOutputStream tar, String name, byte[] content) throws Exception {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length);
+    tar.putArchiveEntry(entry);
+    tar.write(content);
+    tar.closeArchiveEntry();
+  }
+
+  /**
+   * Action context whose stage metrics add up the counts emitted to them.
+   */
+  private static final class MetricsActionContext extends MockActionContext {
+    private final Map<String, Long> counts = new ConcurrentHashMap<>();
+
+    @Override
+    public StageMetrics getMetrics() {
+      return (StageMetrics) Proxy.newProxyInstance(
+        StageMetrics.class.getClassLoader(), new Class<?>[] {StageMetrics.class}, (proxy, method, args) -> {
+          if (method.getName().equals("count")) {
+            counts.merge((String) args[0], ((Number) args[1]).longValue(), Long::sum);
+          }
+          return null;
+        });
+    }
   }
 }
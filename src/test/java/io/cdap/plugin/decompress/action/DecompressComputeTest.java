@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.decompress.action;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import io.cdap.cdap.etl.mock.validation.MockFailureCollector;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DecompressCompute}
+ */
+public class DecompressComputeTest {
+  @ClassRule
+  public static final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testBalanceBySize() {
+    List<FileStatus> files = Arrays.asList(file("/in/a.gz", 100), file("/in/b.gz", 60), file("/in/c.gz", 50),
+                                           file("/in/d.gz", 30), file("/in/e.gz", 20));
+    List<List<String>> bins = DecompressCompute.balance(files, 2, file -> file.getPath());
+    assertEquals(2, bins.size());
+    List<Long> sizes = new ArrayList<>();
+    for (List<String> bin : bins) {
+      long size = 0;
+      for (String path : bin) {
+        for (FileStatus file : files) {
+          size += file.getPath().toString().equals(path) ? file.getLen() : 0;
+        }
+      }
+      sizes.add(size);
+    }
+    assertEquals(Arrays.asList(130L, 130L), sizes);
+  }
+
+  @Test
+  public void testBalanceKeepsSameDestinationTogether() {
+    List<FileStatus> files = Arrays.asList(file("/in/a.tar.gz", 10), file("/in/a.tar.bz2", 10),
+                                           file("/in/b.tar.gz", 10));
+    List<List<String>> bins = DecompressCompute.balance(files, 3, file -> new Path("/out/" +
+      file.getPath().getName().substring(0, file.getPath().getName().indexOf('.'))));
+    assertEquals(2, bins.size());
+    for (List<String> bin : bins) {
+      assertTrue(bin.size() == 1 || (bin.contains("/in/a.tar.gz") && bin.contains("/in/a.tar.bz2")));
+    }
+  }
+
+  @Test
+  public void testTransform() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    for (String name : Arrays.asList("a", "b", "c")) {
+      try (OutputStream out = new GzipCompressorOutputStream(
+        new FileOutputStream(new File(sourceFolder, name + ".json.gz")))) {
+        out.write(String.format("{\"name\": \"%s\"}\n", name).getBytes("UTF-8"));
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressComputeConfig config = new DecompressComputeConfig(sourceFolder.getPath(), destFolder.getPath(), null,
+                                                                 "Compressed", false, 2);
+    JavaSparkContext sparkContext = new JavaSparkContext("local[2]", "decompress-compute-test");
+    try {
+      JavaRDD<StructuredRecord> output = new DecompressCompute(config).transform(context(sparkContext),
+                                                                                 sparkContext.emptyRDD());
+      for (String name : Arrays.asList("a", "b", "c")) {
+        assertTrue(new File(destFolder, name + ".json").isFile());
+      }
+
+      // computing the output again emits the same records without expanding the files again
+      assertTrue(new File(destFolder, "a.json").delete());
+      for (int i = 0; i < 2; i++) {
+        List<StructuredRecord> records = output.collect();
+        assertEquals(3, records.size());
+        for (StructuredRecord record : records) {
+          assertEquals(DecompressCompute.STATUS_EXPANDED, record.get("status"));
+          assertEquals(Long.valueOf(14), record.get("bytesWritten"));
+        }
+      }
+      assertFalse(new File(destFolder, "a.json").exists());
+    } finally {
+      sparkContext.stop();
+    }
+  }
+
+  @Test
+  public void testStagedTransformWritesMarker() throws Exception {
+    File sourceFolder = temporaryFolder.newFolder();
+    for (String name : Arrays.asList("a", "b")) {
+      try (OutputStream out = new GzipCompressorOutputStream(
+        new FileOutputStream(new File(sourceFolder, name + ".json.gz")))) {
+        out.write(String.format("{\"name\": \"%s\"}\n", name).getBytes("UTF-8"));
+      }
+    }
+    File destFolder = temporaryFolder.newFolder();
+    DecompressActionConfig.Builder builder = DecompressActionConfig.newBuilder(
+      new DecompressActionConfig(sourceFolder.getPath(), destFolder.getPath(), null, "Compressed", true))
+      .setStagedWrites(true);
+    JavaSparkContext sparkContext = new JavaSparkContext("local[2]", "decompress-compute-test");
+    try {
+      new DecompressCompute(new DecompressComputeConfig(builder, 2)).transform(context(sparkContext),
+                                                                               sparkContext.emptyRDD());
+      assertTrue(new File(destFolder, "a.json").isFile());
+      assertTrue(new File(destFolder, StagedCommitter.SUCCESS).isFile());
+      assertFalse(new File(destFolder, StagedCommitter.TEMPORARY).exists());
+
+      // a file that fails to expand leaves the destination without the marker
+      Files.write(new File(sourceFolder, "c.json.gz").toPath(), "not gzip".getBytes("UTF-8"));
+      new DecompressCompute(new DecompressComputeConfig(builder, 2)).transform(context(sparkContext),
+                                                                               sparkContext.emptyRDD());
+      assertFalse(new File(destFolder, StagedCommitter.SUCCESS).exists());
+    } finally {
+      sparkContext.stop();
+    }
+  }
+
+  @Test
+  public void testActionOnlyPropertiesRejected() {
+    DecompressActionConfig valid = new DecompressActionConfig("/path/input", "/path/output", null, "archived", false);
+    List<DecompressActionConfig.Builder> builders = Arrays.asList(
+      DecompressActionConfig.newBuilder(valid).setParallelism(2),
+      DecompressActionConfig.newBuilder(valid).setMaxParallelism(2),
+      DecompressActionConfig.newBuilder(valid).setMemoryBudget(1024L),
+      DecompressActionConfig.newBuilder(valid).setManifestPath("/path/manifest"));
+    List<String> properties = Arrays.asList(DecompressActionConfig.PARALLELISM, DecompressActionConfig.MAX_PARALLELISM,
+                                            DecompressActionConfig.MEMORY_BUDGET, DecompressActionConfig.MANIFEST_PATH);
+    for (int i = 0; i < builders.size(); i++) {
+      MockFailureCollector failureCollector = new MockFailureCollector("mockStage");
+      new DecompressComputeConfig(builders.get(i), null).validate(failureCollector);
+      DecompressActionConfigTest.assertPropertyValidationFailed(failureCollector, properties.get(i));
+    }
+  }
+
+  /**
+   * Returns an execution context of the stage that only provides the Spark context and a failure collector.
+   */
+  private static SparkExecutionPluginContext context(JavaSparkContext sparkContext) {
+    MockFailureCollector failureCollector = new MockFailureCollector("mockStage");
+    return (SparkExecutionPluginContext) Proxy.newProxyInstance(
+      SparkExecutionPluginContext.class.getClassLoader(), new Class<?>[] {SparkExecutionPluginContext.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getSparkContext":
+            return sparkContext;
+          case "getFailureCollector":
+            return failureCollector;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+  }
+
+  private static FileStatus file(String path, long length) {
+    return new FileStatus(length, false, 1, 0, 0, new Path(path));
+  }
+}